@@ -0,0 +1,47 @@
+package gitlet;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** Runs CommandBenchmark with the GC profiler, which adds the bytes
+ *  allocated per command, and writes the results as JSON for comparing
+ *  runs.  Usage:
+ *
+ *    java -cp benchmarks.jar gitlet.BenchmarkRunner [JMH options]
+ *
+ *  The report goes to gitlet-bench.json unless -rff names another file, and
+ *  any other JMH option works as usual, e.g. -p files=10000 to change the
+ *  repository or "CommandBenchmark.status" to run one command.
+ *  @author Yun Zhu
+ */
+public class BenchmarkRunner {
+    private static final String DEFAULT_REPORT = "gitlet-bench.json";
+
+    public static void main(String[] args) throws RunnerException {
+        CommandLineOptions cmdOptions;
+        try {
+            cmdOptions = new CommandLineOptions(args);
+        } catch (CommandLineOptionException excp) {
+            System.err.println(excp.getMessage());
+            System.exit(1);
+            return;
+        }
+        OptionsBuilder builder = new OptionsBuilder();
+        if (cmdOptions.getIncludes().isEmpty()) {
+            builder.include(CommandBenchmark.class.getSimpleName());
+        }
+        Options options = builder
+                .parent(cmdOptions)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(cmdOptions.getResultFormat().orElse(ResultFormatType.JSON))
+                .result(cmdOptions.getResult().orElse(DEFAULT_REPORT))
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,220 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Utils.*;
+
+/** JMH benchmarks of the Codec records commits and trees are stored as,
+ *  against the Java serialization (Utils.serialize and deserialize) they
+ *  used to be stored with.  Commit and Tree are no longer Serializable, so
+ *  the serialized forms are of SerialCommit and SerialTree, which hold the
+ *  same fields.
+ *
+ *  The commit has PARENTS parents and a message of MESSAGELENGTH
+ *  characters, and the tree has ENTRIES files, all drawn from SEED.  The
+ *  setup prints the size of each form, which JMH does not measure.
+ *  @author Yun Zhu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CodecBenchmark {
+    @Param({"1", "2"})
+    public int parents;
+
+    @Param({"40"})
+    public int messageLength;
+
+    @Param({"16", "512"})
+    public int entries;
+
+    @Param({"61"})
+    public long seed;
+
+    private Commit commit;
+    private byte[] commitRecord;
+    private byte[] commitSerialized;
+    private Tree tree;
+    private SerialTree serialTree;
+    private byte[] treeRecord;
+    private byte[] treeSerialized;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        Random random = new Random(seed);
+        StringBuilder message = new StringBuilder();
+        while (message.length() < messageLength) {
+            message.append((char) ('a' + random.nextInt(26)));
+        }
+        Codec.Encoder out = new Codec.Encoder(Codec.Type.COMMIT, 256);
+        out.writeLong(new Date().getTime()).writeString(message.toString()).writeID(randomID(random));
+        out.writeVarint(parents);
+        for (int i = 0; i < parents; i += 1) {
+            out.writeID(randomID(random));
+        }
+        byte[] record = out.toByteArray();
+        commit = Commit.decode(sha1(record), record);
+        commitRecord = commit.encode();
+        commitSerialized = serialize(new SerialCommit(commit));
+
+        MemoryStore store = new MemoryStore();
+        Map<String, String> files = new TreeMap<>();
+        for (int i = 0; i < entries; i += 1) {
+            files.put("file" + i + ".txt", randomID(random));
+        }
+        String treeID = Tree.read(store, Tree.saveEmpty(store)).update(store, files);
+        tree = Tree.read(store, treeID);
+        treeRecord = tree.encode();
+        serialTree = new SerialTree(files);
+        treeSerialized = serialize(serialTree);
+
+        System.out.printf("%ncommit: %d bytes as a record, %d serialized; "
+                + "tree: %d bytes as a record, %d serialized%n",
+                commitRecord.length, commitSerialized.length, treeRecord.length, treeSerialized.length);
+    }
+
+    @Benchmark
+    public byte[] encodeCommit() {
+        return commit.encode();
+    }
+
+    @Benchmark
+    public Commit decodeCommit() {
+        return Commit.decode(commit.getCommitID(), commitRecord);
+    }
+
+    @Benchmark
+    public byte[] serializeCommit() {
+        return serialize(new SerialCommit(commit));
+    }
+
+    @Benchmark
+    public SerialCommit deserializeCommit() {
+        return deserialize(commitSerialized, SerialCommit.class);
+    }
+
+    @Benchmark
+    public byte[] encodeTree() {
+        return tree.encode();
+    }
+
+    @Benchmark
+    public Tree decodeTree() {
+        return Tree.decode(treeRecord);
+    }
+
+    @Benchmark
+    public byte[] serializeTree() {
+        return serialize(serialTree);
+    }
+
+    @Benchmark
+    public SerialTree deserializeTree() {
+        return deserialize(treeSerialized, SerialTree.class);
+    }
+
+    private static String randomID(Random random) {
+        byte[] id = new byte[UID_LENGTH / 2];
+        random.nextBytes(id);
+        return bytesToHex(id);
+    }
+
+    /** The fields of a Commit, as Java serialization used to store them. */
+    static class SerialCommit implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private Date date;
+        private String message;
+        private String commitID;
+        private List<String> parentIDs;
+        private String treeID;
+
+        SerialCommit(Commit commit) {
+            date = commit.getDate();
+            message = commit.getMessage();
+            commitID = commit.getCommitID();
+            parentIDs = commit.getParentIDs();
+            treeID = commit.getTreeID();
+        }
+    }
+
+    /** The fields of a single-leaf Tree, as Java serialization used to
+     *  store them. */
+    static class SerialTree implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private int size;
+        private TreeMap<String, String> entries;
+        private TreeMap<String, String> buckets;
+
+        SerialTree(Map<String, String> files) {
+            size = files.size();
+            entries = new TreeMap<>(files);
+        }
+    }
+
+    /** Keeps the trees the setup builds in memory. */
+    private static class MemoryStore implements ObjectStore {
+        private final Map<String, byte[]> objects = new HashMap<>();
+        private final TreeMap<String, Type> types = new TreeMap<>();
+
+        @Override
+        public boolean contains(String id) {
+            return objects.containsKey(id);
+        }
+
+        @Override
+        public byte[] get(String id) {
+            return objects.get(id);
+        }
+
+        @Override
+        public void put(String id, Type type, byte[] data) {
+            objects.putIfAbsent(id, data);
+            types.putIfAbsent(id, type);
+        }
+
+        @Override
+        public void put(String id, Type type, File file) {
+            put(id, type, readContents(file));
+            file.delete();
+        }
+
+        @Override
+        public List<String> ids(Type type) {
+            List<String> ids = new ArrayList<>();
+            for (Map.Entry<String, Type> object : types.entrySet()) {
+                if (object.getValue() == type) {
+                    ids.add(object.getKey());
+                }
+            }
+            return ids;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of the core gitlet commands on a generated repository.
+ *
+ *  Every benchmark runs in its own JVM on a repository RepoGenerator builds
+ *  from the parameters, so two runs with the same parameters measure the
+ *  same history.  Throughput mode reports commands per second and sample
+ *  mode the latency percentiles; run through BenchmarkRunner to add the
+ *  allocation rate and write a JSON report.
+ *
+ *  The commands run in the benchmark JVM as they do in the daemon, with the
+ *  object caches kept between commands.  With coldCaches set the caches
+ *  are dropped before every command instead, as in a fresh gitlet process.
+ *  @author Yun Zhu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CommandBenchmark {
+    @Param({"200"})
+    public int commits;
+
+    @Param({"1000"})
+    public int files;
+
+    @Param({"4"})
+    public int branches;
+
+    @Param({"2048"})
+    public int medianSize;
+
+    @Param({"false"})
+    public boolean coldCaches;
+
+    @Param({"61"})
+    public long seed;
+
+    private static final PrintStream NULL_OUT = new PrintStream(OutputStream.nullOutputStream());
+    private static final String SIDE = "side";
+
+    private File workDir;
+    private RepoGenerator generator;
+    /** The head of master just before it was merged with SIDE. */
+    private String beforeMerge;
+    private boolean onSide;
+    private String edited;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        workDir = Files.createTempDirectory("gitlet-bench").toFile();
+        generator = new RepoGenerator(workDir, seed);
+        generator.generate(commits, files, branches, medianSize);
+
+        // Give merge two diverged branches that never conflict
+        RepoGenerator.run("branch", SIDE);
+        RepoGenerator.run("checkout", SIDE);
+        commitEdits(1 % branches);
+        RepoGenerator.run("checkout", "master");
+        commitEdits(0);
+        beforeMerge = generator.head("master");
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        try (Stream<Path> paths = Files.walk(workDir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void dropCaches() {
+        if (coldCaches) {
+            Repository.resetCaches();
+        }
+    }
+
+    /** Edits one master file for add and commit to pick up. */
+    public void editFile() {
+        edited = generator.ownedPath(0);
+        generator.edit(edited);
+    }
+
+    @Benchmark
+    public void add(AddState state) {
+        RepoGenerator.run("add", edited);
+    }
+
+    @Benchmark
+    public void commit(CommitState state) {
+        RepoGenerator.run("commit", "Benchmark commit");
+    }
+
+    @Benchmark
+    public void status() {
+        RepoGenerator.run("status");
+    }
+
+    @Benchmark
+    public void checkout() {
+        onSide = !onSide;
+        RepoGenerator.run("checkout", onSide ? SIDE : "master");
+    }
+
+    @Benchmark
+    public void merge(MergeState state) {
+        RepoGenerator.run("merge", SIDE);
+    }
+
+    @Benchmark
+    public void log() {
+        RepoGenerator.run(NULL_OUT, "log");
+    }
+
+    /** Edits a file before every add. */
+    @State(Scope.Thread)
+    public static class AddState {
+        @Setup(Level.Invocation)
+        public void prepare(CommandBenchmark bench) {
+            bench.editFile();
+        }
+    }
+
+    /** Edits and adds a file before every commit. */
+    @State(Scope.Thread)
+    public static class CommitState {
+        @Setup(Level.Invocation)
+        public void prepare(CommandBenchmark bench) {
+            bench.editFile();
+            RepoGenerator.run("add", bench.edited);
+        }
+    }
+
+    /** Moves master back to before the merge before every merge. */
+    @State(Scope.Thread)
+    public static class MergeState {
+        @Setup(Level.Invocation)
+        public void prepare(CommandBenchmark bench) {
+            RepoGenerator.run("reset", bench.beforeMerge);
+        }
+    }
+
+    private void commitEdits(int branch) {
+        for (int i = 0; i < 3; i += 1) {
+            String path = generator.ownedPath(branch);
+            if (path != null) {
+                generator.edit(path);
+                RepoGenerator.run("add", path);
+            }
+        }
+        RepoGenerator.run("commit", "Edit files on " + RepoGenerator.branchName(branch));
+    }
+}
@@ -0,0 +1,191 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Builds a synthetic gitlet repository for the benchmarks, the same one
+ *  for the same shape and seed.
+ *
+ *  The repository has FILES text files, sixteen to a directory two levels
+ *  deep, whose sizes follow a log-normal distribution around MEDIANSIZE
+ *  bytes.  Its history has COMMITS commits spread over BRANCHES branches
+ *  (master and b1, b2, ...): every commit edits a few files owned by its
+ *  branch, so branches never conflict, and every side branch is merged
+ *  into master once per round of commits.  The commands run in this JVM
+ *  through Main.run, the same way the daemon runs them.
+ *
+ *  Repository reads the working directory from user.dir once, so a JVM
+ *  can only generate and work in one repository.
+ *  @author Yun Zhu
+ */
+public class RepoGenerator {
+    static final int FILES_PER_DIR = 16;
+    /** Files edited by every generated commit. */
+    private static final int EDITS_PER_COMMIT = 3;
+    private static final String[] WORDS = {
+        "the", "commit", "tree", "blob", "branch", "merge", "index", "staging",
+        "pointer", "remote", "object", "store", "pack", "delta", "hash", "file",
+    };
+    private static final PrintStream NULL_OUT = new PrintStream(OutputStream.nullOutputStream());
+
+    private final File workDir;
+    private final Random random;
+    private final List<String> paths = new ArrayList<>();
+    private int branches;
+
+    /** A generator of a repository in WORKDIR, which must not exist yet or
+     *  be empty, drawing everything from SEED. */
+    public RepoGenerator(File workDir, long seed) {
+        this.workDir = workDir;
+        this.random = new Random(seed);
+        System.setProperty("user.dir", workDir.getAbsolutePath());
+        if (!Repository.CWD.getAbsoluteFile().equals(workDir.getAbsoluteFile())) {
+            throw new IllegalStateException("This JVM already works in " + Repository.CWD);
+        }
+    }
+
+    /** Create the repository and its history, leaving master checked out. */
+    public void generate(int commits, int files, int branches, int medianSize) {
+        this.branches = Math.max(branches, 1);
+        workDir.mkdirs();
+        run("init");
+        for (int i = 0; i < files; i += 1) {
+            String path = pathOf(i);
+            write(path, text(fileSize(medianSize)));
+            paths.add(path);
+            run("add", path);
+        }
+        run("commit", "Add " + files + " files");
+
+        for (int b = 1; b < this.branches; b += 1) {
+            run("branch", branchName(b));
+        }
+        // Round-robin over the branches, master first, so every merge into
+        // master has commits on both sides and never fast-forwards
+        int made = 1;
+        for (int b = 0; made < commits; b = (b + 1) % this.branches) {
+            run("checkout", branchName(b));
+            for (int e = 0; e < EDITS_PER_COMMIT; e += 1) {
+                String path = ownedPath(b);
+                if (path != null) {
+                    edit(path);
+                    run("add", path);
+                }
+            }
+            run("commit", "Commit " + made + " on " + branchName(b));
+            made += 1;
+            if (b == this.branches - 1) {
+                run("checkout", branchName(0));
+                for (int m = 1; m < this.branches && made < commits; m += 1) {
+                    run("merge", branchName(m));
+                    made += 1;
+                }
+            }
+        }
+        run("checkout", branchName(0));
+    }
+
+    /** Return the name of branch B, master for 0. */
+    public static String branchName(int b) {
+        return b == 0 ? "master" : "b" + b;
+    }
+
+    /** Return the paths of the generated files. */
+    public List<String> paths() {
+        return paths;
+    }
+
+    /** Return a random file owned by branch B, which only B's commits edit,
+     *  or null if it owns none. */
+    public String ownedPath(int b) {
+        int owned = (paths.size() - b + branches - 1) / branches;
+        if (owned <= 0) {
+            return null;
+        }
+        return paths.get(b + branches * random.nextInt(owned));
+    }
+
+    /** Replace one line in the middle of the working file at PATH. */
+    public void edit(String path) {
+        String[] lines = read(path).split("\n", -1);
+        lines[random.nextInt(Math.max(lines.length - 1, 1))] = line();
+        write(path, String.join("\n", lines));
+    }
+
+    /** Return the id of the commit BRANCH points to. */
+    public String head(String branch) {
+        return Repository.extractBranchThenGetCommitID(branch);
+    }
+
+    /** Run the gitlet command ARGS with its output discarded. */
+    public static void run(String... args) {
+        run(NULL_OUT, args);
+    }
+
+    /** Run the gitlet command ARGS with its output sent to OUT. */
+    public static void run(PrintStream out, String... args) {
+        PrintStream stdout = System.out;
+        try {
+            System.setOut(out);
+            Main.run(args);
+        } catch (Utils.CommandExit excp) {
+            // A command that stops early has still finished
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+
+    private static String pathOf(int i) {
+        int dir = i / FILES_PER_DIR;
+        return "d" + dir / FILES_PER_DIR + "/d" + dir % FILES_PER_DIR + "/f" + i + ".txt";
+    }
+
+    /** A size drawn from a log-normal distribution with median MEDIAN. */
+    private int fileSize(int median) {
+        double size = median * Math.exp(random.nextGaussian());
+        return (int) Math.max(1, Math.min(size, 64.0 * median));
+    }
+
+    private String text(int size) {
+        StringBuilder text = new StringBuilder(size + 64);
+        while (text.length() < size) {
+            text.append(line()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private String line() {
+        StringBuilder line = new StringBuilder();
+        int words = 4 + random.nextInt(8);
+        for (int i = 0; i < words; i += 1) {
+            line.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return line.append(' ').append(random.nextInt(1000)).toString();
+    }
+
+    private String read(String path) {
+        File file = new File(workDir, path);
+        try {
+            return Files.readString(file.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private void write(String path, String contents) {
+        File file = new File(workDir, path);
+        file.getParentFile().mkdirs();
+        try {
+            Files.writeString(file.toPath(), contents, StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -1,22 +1,202 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.Serializable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
-import static gitlet.MyUtils.getFileID;
+import static gitlet.MyUtils.*;
 import static gitlet.Utils.*;
 
-public class Blob implements Serializable {
+/** A version of a tracked file.  The contents are stored in the object
+ *  store as raw bytes under the SHA-1 of those bytes, behind a one-byte
+ *  header saying whether they are deflate-compressed or stored as-is
+ *  (for data that does not compress, such as images or archives).
+ *  Contents are streamed through NIO channels in both directions, so a
+ *  file never has to fit on the heap.
+ *
+ *  A new version of a file of moderate size may instead be stored as a
+ *  Delta against the previous version: the header is followed by the id
+ *  of the base blob, the length of the delta chain and the deflated
+ *  delta.  Chains are cut at MAX_DELTA_DEPTH by storing a full version,
+ *  and rebuilt contents are kept in a cache so the next version in a
+ *  chain does not rebuild its base again.
+ *  @author Yun Zhu
+ */
+public class Blob {
+    private static final byte STORED = 0;
+    private static final byte DEFLATED = 1;
+    private static final byte DELTA = 2;
+    private static final int MAX_DELTA_DEPTH = 10;
+    /** Files larger than this are always stored whole and streamed. */
+    private static final int MAX_DELTA_SIZE = 16 << 20;
+    private static final ObjectCache<String, byte[]> contentsCache =
+            new ObjectCache<>("delta base", 32L << 20);
+    private static final int CHUNK_SIZE = 1 << 16;
+
     private String blobID;
     private String copiedFileID;
     private String copiedFileName;
-    private String copiedFileContent;
+    private ObjectStore store;
+
+    /** The blob BLOBID in STORE, tracked under the file name FILENAME. */
+    public Blob(ObjectStore store, String fileName, String blobID) {
+        this.store = store;
+        this.copiedFileName = fileName;
+        this.blobID = blobID;
+        this.copiedFileID = getFileID(fileName, blobID);
+    }
+
+    /** Store the contents of FILE in STORE, hashing and compressing them in
+     *  one pass, and return the id of the blob. */
+    public static String save(ObjectStore store, File file) {
+        File tmp;
+        try {
+            tmp = Files.createTempFile(Repository.GITLET_DIR.toPath(), "blob", ".tmp").toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        MessageDigest md = newDigest();
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+            long size = in.size();
+            out.write(ByteBuffer.wrap(new byte[]{DEFLATED}));
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            DeflaterOutputStream deflated = new DeflaterOutputStream(Channels.newOutputStream(out),
+                    deflater, CHUNK_SIZE);
+            ByteBuffer buf = ByteBuffer.allocate(CHUNK_SIZE);
+            while (in.read(buf) > 0) {
+                buf.flip();
+                md.update(buf.array(), 0, buf.limit());
+                deflated.write(buf.array(), 0, buf.limit());
+                buf.clear();
+            }
+            deflated.finish();
+            deflater.end();
+            // Keep incompressible contents as they are
+            if (out.size() - 1 >= size) {
+                out.truncate(0);
+                out.write(ByteBuffer.wrap(new byte[]{STORED}), 0);
+                long position = 0;
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out.position(1 + position));
+                }
+            }
+        } catch (IOException excp) {
+            unrestrictedDelete(tmp);
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String id = bytesToHex(md.digest());
+        store.put(id, ObjectStore.Type.BLOB, tmp);
+        return id;
+    }
+
+    /** Store the contents of FILE in STORE, as a delta against the blob
+     *  BASEID when that is smaller, and return the id of the blob.  BASEID
+     *  is usually the previous version of the same file, or null. */
+    public static String save(ObjectStore store, File file, String baseID) {
+        if (baseID == null || file.length() > MAX_DELTA_SIZE || !store.contains(baseID)) {
+            return save(store, file);
+        }
+        byte[] contents = readContents(file);
+        String id = sha1(contents);
+        if (store.contains(id)) {
+            return id;
+        }
+        byte[] full = encode(contents);
+        int depth = depthOf(store, baseID) + 1;
+        byte[] base = depth <= MAX_DELTA_DEPTH ? contentsOf(store, baseID, MAX_DELTA_SIZE) : null;
+        if (base != null) {
+            byte[] delta = encodeDelta(baseID, depth, Delta.compute(base, contents));
+            if (delta.length < full.length) {
+                store.put(id, ObjectStore.Type.BLOB, delta);
+                contentsCache.put(id, contents, contents.length);
+                return id;
+            }
+        }
+        store.put(id, ObjectStore.Type.BLOB, full);
+        return id;
+    }
+
+    /** Return the id FILE would get as a blob, without storing it. */
+    public static String hash(File file) {
+        MessageDigest md = newDigest();
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(CHUNK_SIZE);
+            while (in.read(buf) > 0) {
+                buf.flip();
+                md.update(buf.array(), 0, buf.limit());
+                buf.clear();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytesToHex(md.digest());
+    }
+
+    /** Write the contents of this blob to FILE, creating or overwriting it
+     *  and creating the directories above it if needed.  Stored contents go
+     *  straight from the object's channel to the file; compressed contents
+     *  are inflated on the way through. */
+    public void writeTo(File file) {
+        try (ReadableByteChannel in = openObject()) {
+            Files.createDirectories(file.toPath().toAbsolutePath().getParent());
+            byte header = readHeader(in);
+            if (header == DELTA) {
+                writeContents(file, contentsOf(store, blobID, Integer.MAX_VALUE));
+                return;
+            }
+            writeTo(file, in, header);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
 
-    public Blob(File stagingFile) {
-        this.blobID = sha1(serialize(this));
-        this.copiedFileID = getFileID(stagingFile);
-        this.copiedFileName = stagingFile.getName();
-        this.copiedFileContent = readContentsAsString(stagingFile);
+    private static void writeTo(File file, ReadableByteChannel in, byte header) throws IOException {
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ReadableByteChannel contents = in;
+            if (header == DEFLATED) {
+                contents = Channels.newChannel(new InflaterInputStream(Channels.newInputStream(in)));
+            }
+            if (contents instanceof FileChannel) {
+                FileChannel source = (FileChannel) contents;
+                long size = source.size();
+                long position = source.position();
+                while (position < size) {
+                    position += source.transferTo(position, size - position, out);
+                }
+            } else {
+                long position = 0;
+                long n;
+                while ((n = out.transferFrom(contents, position, CHUNK_SIZE)) > 0) {
+                    position += n;
+                }
+            }
+        }
+    }
+
+    /** Return the contents of this blob.  Only meant for text that has to
+     *  be combined in memory, such as the two sides of a merge conflict. */
+    public byte[] getContents() {
+        return contentsOf(store, blobID, Integer.MAX_VALUE);
+    }
+
+    /** Return the hit and miss counts of the cache of rebuilt contents. */
+    public static String cacheStats() {
+        return contentsCache.stats();
     }
 
     public String getBlobID() {
@@ -32,6 +212,167 @@ public class Blob implements Serializable {
     }
 
     public String getCopiedFileContent() {
-        return this.copiedFileContent;
+        return new String(getContents(), StandardCharsets.UTF_8);
+    }
+
+    private ReadableByteChannel openObject() {
+        return openObject(store, blobID);
+    }
+
+    private static ReadableByteChannel openObject(ObjectStore store, String blobID) {
+        ReadableByteChannel in = store.open(blobID);
+        if (in == null) {
+            throw error("Missing blob %s.", blobID);
+        }
+        return in;
+    }
+
+    /** Return the contents of the blob ID in STORE, rebuilding deltas, or
+     *  null if they are longer than LIMIT. */
+    private static byte[] contentsOf(ObjectStore store, String id, int limit) {
+        byte[] contents = contentsCache.get(id);
+        if (contents != null) {
+            return contents.length <= limit ? contents : null;
+        }
+        try (ReadableByteChannel in = openObject(store, id)) {
+            byte header = readHeader(in);
+            if (header == DELTA) {
+                contents = applyDelta(store, in);
+            } else {
+                InputStream stream = Channels.newInputStream(in);
+                if (header == DEFLATED) {
+                    stream = new InflaterInputStream(stream);
+                }
+                contents = stream.readNBytes(limit == Integer.MAX_VALUE ? limit - 8 : limit + 1);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (contents.length > limit) {
+            return null;
+        }
+        contentsCache.put(id, contents, contents.length);
+        return contents;
+    }
+
+    /** Return the contents of the delta IN, which is past its header,
+     *  applied to its base in STORE. */
+    private static byte[] applyDelta(ObjectStore store, ReadableByteChannel in) throws IOException {
+        ByteBuffer info = readFully(in, UID_LENGTH / 2 + 1);
+        byte[] baseID = new byte[UID_LENGTH / 2];
+        info.get(baseID);
+        byte[] base = contentsOf(store, bytesToHex(baseID), Integer.MAX_VALUE);
+        InputStream delta = new InflaterInputStream(Channels.newInputStream(in));
+        return Delta.apply(base, delta.readAllBytes());
+    }
+
+    /** Return the id of the blob whose stored form is in FILE, the SHA-1 of
+     *  the contents it holds.  A delta's base must be in STORE. */
+    static String idOf(ObjectStore store, File file) {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            byte header = readHeader(in);
+            if (header == DELTA) {
+                return sha1(applyDelta(store, in));
+            } else if (header != STORED && header != DEFLATED) {
+                throw error("Corrupted blob.");
+            }
+            InputStream stream = Channels.newInputStream(in);
+            if (header == DEFLATED) {
+                stream = new InflaterInputStream(stream);
+            }
+            MessageDigest md = newDigest();
+            byte[] buf = new byte[CHUNK_SIZE];
+            int n;
+            while ((n = stream.read(buf)) >= 0) {
+                md.update(buf, 0, n);
+            }
+            return bytesToHex(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the full stored form of CONTENTS: deflated, or as they are if
+     *  that is not smaller. */
+    private static byte[] encode(byte[] contents) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(contents.length / 2 + 16);
+        out.write(DEFLATED);
+        deflate(contents, out);
+        if (out.size() - 1 < contents.length) {
+            return out.toByteArray();
+        }
+        byte[] stored = new byte[contents.length + 1];
+        stored[0] = STORED;
+        System.arraycopy(contents, 0, stored, 1, contents.length);
+        return stored;
+    }
+
+    private static byte[] encodeDelta(String baseID, int depth, byte[] delta) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(delta.length / 2 + 32);
+        out.write(DELTA);
+        out.writeBytes(hexToBytes(baseID));
+        out.write(depth);
+        deflate(delta, out);
+        return out.toByteArray();
+    }
+
+    private static void deflate(byte[] data, ByteArrayOutputStream out) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater)) {
+            deflated.write(data);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Return the length of the delta chain ending at the blob ID, 0 for a
+     *  blob stored whole. */
+    private static int depthOf(ObjectStore store, String id) {
+        try (ReadableByteChannel in = openObject(store, id)) {
+            if (readHeader(in) != DELTA) {
+                return 0;
+            }
+            return readFully(in, UID_LENGTH / 2 + 1).get(UID_LENGTH / 2) & 0xff;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the id of the base of the blob ID, or null if it is stored whole. */
+    static String baseOf(ObjectStore store, String id) {
+        try (ReadableByteChannel in = openObject(store, id)) {
+            if (readHeader(in) != DELTA) {
+                return null;
+            }
+            byte[] baseID = new byte[UID_LENGTH / 2];
+            readFully(in, UID_LENGTH / 2).get(baseID);
+            return bytesToHex(baseID);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static byte readHeader(ReadableByteChannel in) throws IOException {
+        return readFully(in, 1).get();
+    }
+
+    private static ByteBuffer readFully(ReadableByteChannel in, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (in.read(buf) < 0) {
+                throw error("Corrupted blob.");
+            }
+        }
+        return buf.flip();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
     }
 }
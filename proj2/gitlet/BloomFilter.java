@@ -0,0 +1,93 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/** The changed-path Bloom filter of a commit, kept in the commit graph: a
+ *  bit array that has K_HASHES bits set for every path the commit changed
+ *  against its first parent, and for every directory above those paths.
+ *  A path whose bits are not all set was certainly not changed, so log can
+ *  pass over the commit without reading a tree; one whose bits are set
+ *  probably was, with a false positive rate of about 1%.
+ *
+ *  A filter is BITS_PER_PATH bits for every path, rounded up to whole
+ *  bytes.  A commit that changed nothing has an empty filter, which
+ *  contains nothing, and one that changed more than MAX_PATHS paths, or
+ *  whose filter was never computed, has the one-byte filter MAYBE, which
+ *  contains everything.
+ *  @author Yun Zhu
+ */
+public class BloomFilter {
+    static final int BITS_PER_PATH = 10;
+    static final int K_HASHES = 7;
+    static final int MAX_PATHS = 512;
+    static final byte[] MAYBE = {(byte) 0xff};
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** Return the filter of a commit that changed the files PATHS. */
+    public static byte[] of(Collection<String> paths) {
+        Set<String> keys = new LinkedHashSet<>();
+        for (String path : paths) {
+            keys.add(path);
+            for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+                keys.add(path.substring(0, slash));
+            }
+        }
+        if (keys.size() > MAX_PATHS) {
+            return MAYBE;
+        }
+        byte[] filter = new byte[(keys.size() * BITS_PER_PATH + 7) / 8];
+        for (String key : keys) {
+            long hash = hash(key);
+            for (int i = 0; i < K_HASHES; i += 1) {
+                int bit = bitOf(hash, i, filter.length * 8);
+                filter[bit >>> 3] |= (byte) (1 << (bit & 7));
+            }
+        }
+        return filter;
+    }
+
+    /** Return false if PATH, a file or a directory without a trailing '/',
+     *  is certainly not in FILTER. */
+    public static boolean mightContain(byte[] filter, String path) {
+        if (filter.length == 0) {
+            return false;
+        }
+        long hash = hash(path);
+        for (int i = 0; i < K_HASHES; i += 1) {
+            int bit = bitOf(hash, i, filter.length * 8);
+            if ((filter[bit >>> 3] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The I-th of the K_HASHES bit positions, by double hashing the two
+     *  halves of the 64-bit hash of the path. */
+    private static int bitOf(long hash, int i, int bits) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        return Integer.remainderUnsigned(h1 + i * h2, bits);
+    }
+
+    /** FNV-1a, whose low bits only depend on the low bits of the bytes,
+     *  followed by the MurmurHash3 finalizer to spread every byte over
+     *  every bit. */
+    private static long hash(String path) {
+        long hash = FNV_OFFSET;
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
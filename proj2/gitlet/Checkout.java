@@ -0,0 +1,92 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** Moves the working directory from the files of one commit to those of
+ *  another.  The two trees are diffed first, so only files that differ are
+ *  deleted or written; working files that are clean and the same in both
+ *  commits are left alone.  The writes are spread over a bounded pool of
+ *  worker threads.
+ *  @author Yun Zhu
+ */
+public class Checkout {
+    /** Below this many writes, starting threads costs more than it saves. */
+    private static final int MIN_PARALLEL_WRITES = 16;
+
+    /** File name -> blob id of the files to write. */
+    private TreeMap<String, String> writes = new TreeMap<>();
+    private List<String> deletes = new ArrayList<>();
+
+    /** Plan the move of the working directory from commit FROM to commit TO.
+     *  Working files the index sees as modified, and staged files that TO
+     *  does not track, are also put back or removed. */
+    public Checkout(Commit from, Commit to) {
+        ObjectStore store = objects();
+        Map<String, String> fromFiles = from.getFiles();
+        Map<String, String> changes = Tree.diff(store, from.getTree(), to.getTree());
+        Set<String> workingFileNames = new HashSet<>(workingFiles());
+
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() != null) {
+                writes.put(change.getKey(), change.getValue());
+            } else if (join(CWD, change.getKey()).isFile()) {
+                deletes.add(change.getKey());
+            }
+        }
+        for (String fileName : workingFileNames) {
+            if (changes.containsKey(fileName)) {
+                continue;
+            }
+            // Both commits agree on this file, so only a dirty copy needs work
+            String blobID = fromFiles.get(fileName);
+            if (blobID == null) {
+                deletes.add(fileName);
+            } else if (!getWorkingFileID(fileName).equals(getFileID(fileName, blobID))) {
+                writes.put(fileName, blobID);
+            }
+        }
+        for (Map.Entry<String, String> file : fromFiles.entrySet()) {
+            if (!changes.containsKey(file.getKey()) && !workingFileNames.contains(file.getKey())) {
+                writes.put(file.getKey(), file.getValue());
+            }
+        }
+        workingIndex().save();
+    }
+
+    /** Carry out the planned deletes and writes. */
+    public void run() {
+        long start = System.nanoTime();
+        for (String fileName : deletes) {
+            deleteWorkingFile(fileName);
+        }
+
+        ObjectStore store = objects();
+        // Blobs a blob-less fetch left out come in one transfer, not one per worker
+        store.prefetch(writes.values());
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (Map.Entry<String, String> write : writes.entrySet()) {
+            String fileName = write.getKey();
+            String blobID = write.getValue();
+            tasks.add(() -> {
+                new Blob(store, fileName, blobID).writeTo(join(CWD, fileName));
+                return null;
+            });
+        }
+        runInParallel(tasks, MIN_PARALLEL_WRITES);
+
+        long elapsed = Math.max(System.nanoTime() - start, 1);
+        int touched = deletes.size() + writes.size();
+        Stats.report("checkout: %d written, %d deleted in %.1f ms (%.0f files/sec)",
+                writes.size(), deletes.size(), elapsed / 1e6, touched * 1e9 / elapsed);
+    }
+}
@@ -0,0 +1,88 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.List;
+
+/** The thin client of the gitlet daemon.  It sends its arguments to the
+ *  daemon of the repository in the current directory and prints the
+ *  reply, without loading any of the repository's state itself.  With no
+ *  daemon running it runs the command in-process, like Main.
+ *
+ *  Usage: java gitlet.Client [--stats] <COMMAND> <OPERAND1> ...
+ *         java gitlet.Client daemon stop
+ *  @author Yun Zhu
+ */
+public class Client {
+    /** The arguments that ask the daemon to shut down. */
+    static final List<String> STOP = List.of("daemon", "stop");
+
+    public static void main(String[] args) throws IOException {
+        File cwd = new File(System.getProperty("user.dir"));
+        File gitletDir = new File(cwd, ".gitlet");
+        SocketChannel channel = connect(gitletDir);
+        if (channel == null) {
+            if (!List.of(args).equals(STOP)) {
+                Main.main(args);
+            }
+            return;
+        }
+
+        int status;
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeUTF(token(gitletDir));
+            out.writeUTF(cwd.getPath());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            status = in.readInt();
+            System.out.write(in.readNBytes(in.readInt()));
+            System.out.flush();
+            System.err.write(in.readNBytes(in.readInt()));
+            System.err.flush();
+        }
+        System.exit(status);
+    }
+
+    /** Return a connection to the daemon of GITLETDIR, or null if none is
+     *  running there. */
+    static SocketChannel connect(File gitletDir) {
+        File socketFile = new File(gitletDir, "daemon.sock");
+        File portFile = new File(gitletDir, "daemon.port");
+        try {
+            if (socketFile.exists()) {
+                SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+                channel.connect(UnixDomainSocketAddress.of(socketFile.toPath()));
+                return channel;
+            }
+            if (portFile.exists()) {
+                int port = Integer.parseInt(Files.readString(portFile.toPath()).trim());
+                return SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            }
+        } catch (IOException | NumberFormatException excp) {
+            // A daemon that died without cleaning up
+        }
+        return null;
+    }
+
+    /** Return the token requests to the daemon of GITLETDIR start with. */
+    private static String token(File gitletDir) throws IOException {
+        File tokenFile = new File(gitletDir, "daemon.token");
+        return tokenFile.exists() ? Files.readString(tokenFile.toPath()).trim() : "";
+    }
+}
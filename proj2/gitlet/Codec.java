@@ -0,0 +1,179 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Utils.*;
+
+/** The binary format of the commits, trees, pointers and remotes that
+ *  gitlet stores, and of the lists of shallow commits and promised blobs
+ *  that fetch keeps, written and read field by field without reflection.
+ *
+ *  A record is VERSION(1) TYPE(1) and the fields of the object in a fixed
+ *  order.  Counts and lengths are unsigned varints, strings are a length
+ *  and UTF-8 bytes, dates are milliseconds in 8 bytes and object ids are
+ *  their 20 raw bytes.  A record has exactly one encoding, so an object
+ *  named by the SHA-1 of its record keeps its id across releases.
+ *
+ *  Pointers and remotes written by older versions of gitlet with Java
+ *  serialization start with the stream magic 0xACED instead and are still
+ *  read.  Commits of those versions listed their files instead of naming
+ *  a tree, so they are not, and neither is a repository made by them.
+ *  @author Yun Zhu
+ */
+public class Codec {
+    static final byte VERSION = 1;
+
+    /** The kinds of record, stored as their ordinal plus one. */
+    enum Type { COMMIT, TREE, POINTER, REMOTE, SHALLOW, PROMISED }
+
+    private static final int ID_SIZE = UID_LENGTH / 2;
+    private static final byte SERIAL_MAGIC = (byte) 0xac;
+
+    /** Builds one record. */
+    static class Encoder {
+        private byte[] buf;
+        private int size;
+
+        Encoder(Type type, int sizeHint) {
+            buf = new byte[Math.max(sizeHint, 16)];
+            buf[0] = VERSION;
+            buf[1] = (byte) (type.ordinal() + 1);
+            size = 2;
+        }
+
+        Encoder writeByte(int b) {
+            ensure(1);
+            buf[size++] = (byte) b;
+            return this;
+        }
+
+        Encoder writeVarint(int n) {
+            ensure(5);
+            while ((n & ~0x7f) != 0) {
+                buf[size++] = (byte) ((n & 0x7f) | 0x80);
+                n >>>= 7;
+            }
+            buf[size++] = (byte) n;
+            return this;
+        }
+
+        Encoder writeLong(long n) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[size++] = (byte) (n >>> shift);
+            }
+            return this;
+        }
+
+        Encoder writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, size, bytes.length);
+            size += bytes.length;
+            return this;
+        }
+
+        Encoder writeID(String id) {
+            ensure(ID_SIZE);
+            for (int i = 0; i < ID_SIZE; i += 1) {
+                buf[size++] = (byte) ((Character.digit(id.charAt(2 * i), 16) << 4)
+                        | Character.digit(id.charAt(2 * i + 1), 16));
+            }
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+
+        private void ensure(int n) {
+            if (size + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+            }
+        }
+    }
+
+    /** Reads one record, failing with a GitletException if it is damaged. */
+    static class Decoder {
+        private final byte[] buf;
+        private int pos;
+
+        Decoder(byte[] data, Type type) {
+            buf = data;
+            if (isLegacy(data)) {
+                throw error("This %s was written by an older version of gitlet.", type.name().toLowerCase());
+            }
+            if (data.length < 2 || data[0] != VERSION || data[1] != type.ordinal() + 1) {
+                throw error("Not a %s record of version %d.", type.name().toLowerCase(), VERSION);
+            }
+            pos = 2;
+        }
+
+        int readByte() {
+            check(1);
+            return buf[pos++] & 0xff;
+        }
+
+        int readVarint() {
+            int n = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                n |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return n;
+                }
+            }
+            throw error("Damaged record.");
+        }
+
+        long readLong() {
+            check(8);
+            long n = 0;
+            for (int i = 0; i < 8; i += 1) {
+                n = (n << 8) | (buf[pos++] & 0xff);
+            }
+            return n;
+        }
+
+        String readString() {
+            int length = readVarint();
+            check(length);
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+
+        String readID() {
+            check(ID_SIZE);
+            String id = bytesToHex(buf, pos, ID_SIZE);
+            pos += ID_SIZE;
+            return id;
+        }
+
+        /** Fail unless the whole record has been read. */
+        void end() {
+            if (pos != buf.length) {
+                throw error("Damaged record.");
+            }
+        }
+
+        private void check(int n) {
+            if (n < 0 || pos + n > buf.length) {
+                throw error("Damaged record.");
+            }
+        }
+    }
+
+    /** Return true if DATA is a record of TYPE. */
+    static boolean isRecord(byte[] data, Type type) {
+        return data != null && data.length >= 2 && data[0] == VERSION && data[1] == type.ordinal() + 1;
+    }
+
+    /** Return true if DATA was written with Java serialization. */
+    static boolean isLegacy(byte[] data) {
+        return data.length >= 2 && data[0] == SERIAL_MAGIC && data[1] == (byte) 0xed;
+    }
+}
@@ -1,20 +1,19 @@
 package gitlet;
 
-import java.io.File;
-import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
-import static gitlet.MyUtils.*;
 import static gitlet.Repository.*;
 import static gitlet.Utils.*;
 
-/** Represents a gitlet commit object.
+/** Represents a gitlet commit object.  Its id is the SHA-1 of its record
+ *  (see Codec): DATE MESSAGE TREE COUNT PARENT*, the id itself excluded.
  *  @author Yun Zhu
  */
-public class Commit implements Serializable {
+public class Commit {
     /** List all instance variables of the Commit class here with a useful
      *  comment above them describing what that variable represents and how that
      *  variable is used. We've provided one example for `message`.
@@ -23,95 +22,82 @@ public class Commit implements Serializable {
     private Date date;
     private String message;
     private String CommitID;
-    private List<String> blobIDs;
     private List<String> parentIDs;
-    private List<String> copiedFileIDs;
-    private List<String> copiedFileNames;
-    private int markedCount;
-    private int distance;
+    /** The id of the tree mapping every tracked file name to its blob id. */
+    private String treeID;
+    /** The tree itself, loaded on first use. */
+    private Tree tree;
 
     public Commit(String message, Date date, List<String> parentIDs) {
         this.date = date;
         this.message = message;
-        this.CommitID = sha1(serialize(this));
-        this.blobIDs = new LinkedList<>();
         this.parentIDs = parentIDs;
-        this.copiedFileIDs = new LinkedList<>();
-        this.copiedFileNames = new LinkedList<>();
         getInfoFromParent();
         getInfoFromStaging();
-        this.markedCount = 0;
-        this.distance = 0;
+        this.CommitID = sha1(encode());
     }
 
-    public Blob makeBlob(File stagingFile) {
-        Blob blob = new Blob(stagingFile);
-        String blobID = blob.getBlobID();
-        saveDirAndObjInBlobs(blob, BLOB_FOLDER, blobID);
-        return blob;
+    private Commit() {
+    }
+
+    /** Return the record this commit is stored as. */
+    public byte[] encode() {
+        Codec.Encoder out = new Codec.Encoder(Codec.Type.COMMIT, 64 + message.length() + 20 * parentIDs.size());
+        out.writeLong(date.getTime()).writeString(message).writeID(treeID);
+        out.writeVarint(parentIDs.size());
+        for (String parentID : parentIDs) {
+            out.writeID(parentID);
+        }
+        return out.toByteArray();
+    }
+
+    /** Return the commit COMMITID stored as DATA. */
+    public static Commit decode(String commitID, byte[] data) {
+        Codec.Decoder in = new Codec.Decoder(data, Codec.Type.COMMIT);
+        Commit commit = new Commit();
+        commit.CommitID = commitID;
+        commit.date = new Date(in.readLong());
+        commit.message = in.readString();
+        commit.treeID = in.readID();
+        int n = in.readVarint();
+        commit.parentIDs = new ArrayList<>(n);
+        for (int i = 0; i < n; i += 1) {
+            commit.parentIDs.add(in.readID());
+        }
+        in.end();
+        return commit;
     }
 
     private void getInfoFromParent() {
-        if (this.parentIDs.size() == 1) {
-            Commit parentCommit = readObject(join(COMMITS_FOLDER, this.parentIDs.get(0)),
-                    Commit.class);
-            this.blobIDs.addAll(parentCommit.getBlobIDs());
-            this.copiedFileIDs.addAll(parentCommit.getCopiedFileIDs());
-            this.copiedFileNames.addAll(parentCommit.getCopiedFileNames());
+        // A merge commit starts from the current (first) parent as well
+        if (this.parentIDs.size() > 0) {
+            Commit parentCommit = readCommit(this.parentIDs.get(0));
+            this.treeID = parentCommit.getTreeID();
+        } else {
+            this.treeID = Tree.saveEmpty(objects());
         }
     }
 
     private void getInfoFromStaging() {
-        // First consider the ADDITION_FOLDER
-        // Get fileNames and fileIDs in the ADDITION_FOLDER
-        for (String fileName : plainFilenamesIn(ADDITION_FOLDER)) {
-            File file = join(ADDITION_FOLDER, fileName);
-            String fileID = getFileID(file);
-            // Different filename and different fileID -> add the file from staging
-            if (!this.copiedFileNames.contains(fileName) && !this.copiedFileIDs.contains(fileID)) {
-                this.copiedFileNames.add(fileName);
-                this.copiedFileIDs.add(fileID);
-                this.blobIDs.add(makeBlob(file).getBlobID());
-                // Same filename but different fileID -> use the file from staging to replace the file from parent
-            } else if (this.copiedFileNames.contains(fileName)
-                    && !this.copiedFileIDs.contains(fileID)) {
-                // Delete the file (copiedFileID and blobID) from parent
-                for (String blobID : this.blobIDs) {
-                    Blob blob = readObject(join(BLOB_FOLDER, getDirID(blobID), blobID), Blob.class);
-                    if (blob.getCopiedFileName().equals(fileName)) {
-                        this.copiedFileIDs.remove(blob.getCopiedFileID());
-                        this.blobIDs.remove(blob.getBlobID());
-                        break;
-                    }
-                }
-                // Add the file from staging
-                this.copiedFileIDs.add(fileID);
-                this.blobIDs.add(makeBlob(file).getBlobID());
+        Tree parentTree = getTree();
+        Map<String, String> changes = new TreeMap<>();
+        // The staged blobs are already in the store; only the tree is new
+        for (Map.Entry<String, String> addition : staging().getAdditions().entrySet()) {
+            if (!addition.getValue().equals(parentTree.get(objects(), addition.getKey()))) {
+                changes.put(addition.getKey(), addition.getValue());
             }
-            // Same filename and same fileID -> do nothing
         }
-
-        // Then consider the REMOVED_FOLDER
-        // Get fileNames and fileIDs in the REMOVED_FOLDER
-        List<String> removedBlobIDs = new LinkedList<>();
-        for (String fileName : plainFilenamesIn(REMOVED_FOLDER)) {
-            File file = join(REMOVED_FOLDER, fileName);
-            String fileID = getFileID(file);
-            // Same filename and same fileID, remove it from the new commit
-            if (this.copiedFileNames.contains(fileName) && this.copiedFileIDs.contains(fileID)) {
-                this.copiedFileNames.remove(fileName);
-                this.copiedFileIDs.remove(fileID);
-                // Add the BlobID to be deleted to removedBlobIDs
-                for (String blobID : this.blobIDs) {
-                    Blob blob = readObject(join(BLOB_FOLDER, getDirID(blobID), blobID), Blob.class);
-                    if (fileID.equals(blob.getCopiedFileID())) {
-                        removedBlobIDs.add(blobID);
-                        break;
-                    }
-                }
+        for (Map.Entry<String, String> removal : staging().getRemovals().entrySet()) {
+            // Same filename and same content, remove it from the new commit
+            if (removal.getValue().equals(parentTree.get(objects(), removal.getKey()))) {
+                changes.put(removal.getKey(), null);
             }
         }
-        this.blobIDs.removeAll(removedBlobIDs);
+
+        if (!changes.isEmpty()) {
+            this.treeID = parentTree.update(objects(), changes);
+            this.tree = null;
+        }
     }
 
     public Date getDate() {
@@ -126,52 +112,38 @@ public class Commit implements Serializable {
         return this.CommitID;
     }
 
-    public List<String> getBlobIDs() {
-        return this.blobIDs;
+    public String getTreeID() {
+        return this.treeID;
     }
 
-    public HashSet<Blob> getBlobs() {
-        HashSet<Blob> blobs = new HashSet<>();
-        for (String id : blobIDs) {
-            Blob blob = readObject(join(BLOB_FOLDER, getDirID(id), id), Blob.class);
-            blobs.add(blob);
+    public Tree getTree() {
+        if (this.tree == null) {
+            this.tree = Tree.read(objects(), this.treeID);
         }
-        return blobs;
+        return this.tree;
     }
 
-    public List<String> getParentIDs() {
-        return this.parentIDs;
+    // Get the blob id of a tracked file, or null if the file is not tracked
+    public String getBlobID(String fileName) {
+        return getTree().get(objects(), fileName);
     }
 
-    public List<String> getCopiedFileIDs() {
-        return this.copiedFileIDs;
+    public boolean hasFile(String fileName) {
+        return getBlobID(fileName) != null;
     }
 
-    public List<String> getCopiedFileNames() {
-        return this.copiedFileNames;
+    // Get the blob of a tracked file without reading its contents, or null
+    public Blob getBlob(String fileName) {
+        String blobID = getBlobID(fileName);
+        return blobID == null ? null : new Blob(objects(), fileName, blobID);
     }
 
-    public void resetDistance() {
-        this.distance = 0;
+    // Map every tracked file name to its blob id, in file name order
+    public TreeMap<String, String> getFiles() {
+        return getTree().toMap(objects());
     }
 
-    public void updatedDistance(int n) {
-        this.distance += n;
-    }
-
-    public int getDistance() {
-        return this.distance;
-    }
-
-    public void resetMarkedCount() {
-        this.markedCount = 0;
-    }
-
-    public void updatedMarkedCount() {
-        this.markedCount += 1;
-    }
-
-    public int getMarkedCount() {
-        return this.markedCount;
+    public List<String> getParentIDs() {
+        return this.parentIDs;
     }
 }
@@ -0,0 +1,760 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Utils.*;
+
+/** A persistent index of the commit history.  For every commit it keeps the
+ *  positions of its parents, its generation number (1 for a root, otherwise
+ *  one more than its highest parent), its timestamp and the Bloom filter of
+ *  the paths it changed, so ancestry and path history queries never have
+ *  to deserialize a Commit or read a tree they can rule out.
+ *
+ *  The file (.gitlet/commit-graph) is a header followed by five arrays of
+ *  COUNT entries, all indexed by the position of a commit in the sorted id
+ *  array:  IDS(20 each) PARENTS(4 + 4 each, -1 for none) GENERATIONS(4 each)
+ *  TIMES(8 each) FILTER_ENDS(4 each), and then the filters, one after the
+ *  other, the filter of position i ending at FILTER_ENDS[i].  A version 1
+ *  graph has no filters and reads as if every filter were MAYBE.
+ *
+ *  Commits added later are appended to .gitlet/commit-graph.tail, so a
+ *  commit writes one small record and not the whole graph.  The tail is
+ *  TAIL_MAGIC VERSION BASE_COUNT, then one record per commit, parents
+ *  first:  ID(20) FIRST(4) SECOND(4) GENERATION(4) TIME(8) FILTER_LENGTH(4)
+ *  FILTER.  The positions of tail commits follow those of the sorted file,
+ *  in the order they were added.  A tail whose BASE_COUNT is not the count
+ *  of the sorted file belongs to an older one and is ignored, as is a
+ *  record cut short by a crash.  Once the tail holds more than a quarter of
+ *  the commits, and whenever gc rebuilds the graph, it is folded into a new
+ *  sorted file.
+ *
+ *  The parents a shallow fetch left out are not in the graph, so the
+ *  commits at the end of a shallow history have -1 for them and look like
+ *  roots to every walk.
+ *  @author Yun Zhu
+ */
+public class CommitGraph {
+    private static final int MAGIC = 0x474c4347; // "GLCG"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 12;
+    private static final int ID_SIZE = 20;
+    private static final int NONE = -1;
+
+    private static final int TAIL_MAGIC = 0x474c4354; // "GLCT"
+    private static final int TAIL_VERSION = 1;
+    private static final int TAIL_HEADER_SIZE = 12;
+    private static final int TAIL_RECORD_SIZE = ID_SIZE + 4 + 4 + 4 + 8 + 4;
+    /** The fewest tail commits that are folded into the sorted file. */
+    private static final int MIN_FOLD = 256;
+
+    private static final int FROM_HEAD = 1;
+    private static final int FROM_OTHER = 2;
+    private static final int STALE = 4;
+
+    private File graphFile;
+    private File tailFile;
+    private ObjectStore store;
+    private int count;
+    /** The number of commits in the sorted file, whose ids are in order. */
+    private int baseCount;
+    /** The number of commits in the graph files, the rest only in memory. */
+    private int written;
+    /** The end of the last complete record of the tail, or 0 if there is no
+     *  tail that belongs to the sorted file. */
+    private long tailEnd;
+    /** The positions of the commits after the sorted ones. */
+    private Map<String, Integer> tailPositions = new HashMap<>();
+    private byte[] ids;
+    private int[] firstParents;
+    private int[] secondParents;
+    private int[] generations;
+    private long[] times;
+    private byte[][] filters;
+
+    private CommitGraph(File gitletDir, ObjectStore store) {
+        this.graphFile = join(gitletDir, "commit-graph");
+        this.tailFile = join(gitletDir, "commit-graph.tail");
+        this.store = store;
+    }
+
+    /** Open the commit graph of GITLETDIR, whose objects are in STORE.  A
+     *  repository that has no graph file yet gets one built from STORE. */
+    public static CommitGraph open(File gitletDir, ObjectStore store) {
+        CommitGraph graph = new CommitGraph(gitletDir, store);
+        if (graph.graphFile.isFile()) {
+            graph.read();
+            graph.readTail();
+        } else {
+            graph.allocate(0);
+            List<Commit> commits = new LinkedList<>();
+            for (String id : store.ids(ObjectStore.Type.COMMIT)) {
+                commits.add(Repository.readCommit(store, id));
+            }
+            graph.insert(commits);
+            graph.fold();
+        }
+        return graph;
+    }
+
+    /** Return true if GITLETDIR has a commit graph file. */
+    public static boolean exists(File gitletDir) {
+        return join(gitletDir, "commit-graph").isFile();
+    }
+
+    /** Throw away the commit graph of GITLETDIR and build it again from the
+     *  commits in STORE. */
+    public static CommitGraph rebuild(File gitletDir, ObjectStore store) {
+        CommitGraph old = new CommitGraph(gitletDir, store);
+        old.graphFile.delete();
+        old.tailFile.delete();
+        return open(gitletDir, store);
+    }
+
+    /** Add COMMITS, and their ancestors that are in the store, to the graph
+     *  and to the graph files. */
+    public void add(Collection<Commit> commits) {
+        insert(commits);
+        if (count - baseCount > Math.max(MIN_FOLD, count / 4)) {
+            fold();
+        } else {
+            writeTail();
+        }
+    }
+
+    /** Add COMMITS and their ancestors that are in the store, and not in the
+     *  graph yet, in memory only. */
+    private void insert(Collection<Commit> commits) {
+        Map<String, Commit> fresh = new LinkedHashMap<>();
+        Deque<Commit> pending = new ArrayDeque<>(commits);
+        while (!pending.isEmpty()) {
+            Commit commit = pending.pop();
+            if (fresh.containsKey(commit.getCommitID()) || contains(commit.getCommitID())) {
+                continue;
+            }
+            fresh.put(commit.getCommitID(), commit);
+            // Those a shallow fetch left out are not in the store and stay out
+            for (String parentID : commit.getParentIDs()) {
+                if (!fresh.containsKey(parentID) && !contains(parentID) && store.contains(parentID)) {
+                    pending.push(Repository.readCommit(store, parentID));
+                }
+            }
+        }
+        // Every commit goes after its parents, so their positions are known
+        for (Commit commit : fresh.values()) {
+            Deque<Commit> stack = new ArrayDeque<>();
+            stack.push(commit);
+            while (!stack.isEmpty()) {
+                Commit top = stack.peek();
+                if (contains(top.getCommitID())) {
+                    stack.pop();
+                    continue;
+                }
+                boolean ready = true;
+                for (String parentID : top.getParentIDs()) {
+                    if (fresh.containsKey(parentID) && !contains(parentID)) {
+                        stack.push(fresh.get(parentID));
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    append(top);
+                    stack.pop();
+                }
+            }
+        }
+    }
+
+    /** Give COMMIT, whose parents are in the graph or left out, the next position. */
+    private void append(Commit commit) {
+        int pos = count;
+        allocate(count + 1);
+        List<String> parentIDs = commit.getParentIDs();
+        System.arraycopy(hexToBytes(commit.getCommitID()), 0, ids, pos * ID_SIZE, ID_SIZE);
+        firstParents[pos] = parentIDs.size() > 0 ? position(parentIDs.get(0)) : NONE;
+        secondParents[pos] = parentIDs.size() > 1 ? position(parentIDs.get(1)) : NONE;
+        int generation = 1;
+        for (int parent : new int[]{firstParents[pos], secondParents[pos]}) {
+            if (parent != NONE) {
+                generation = Math.max(generation, generations[parent] + 1);
+            }
+        }
+        generations[pos] = generation;
+        times[pos] = commit.getDate().getTime();
+        filters[pos] = changedPathFilter(commit);
+        tailPositions.put(commit.getCommitID(), pos);
+        count += 1;
+    }
+
+    /** Make room for CAPACITY commits. */
+    private void allocate(int capacity) {
+        if (ids != null && firstParents.length >= capacity) {
+            return;
+        }
+        int length = Math.max(capacity, ids == null ? 0 : firstParents.length * 2);
+        ids = ids == null ? new byte[length * ID_SIZE] : Arrays.copyOf(ids, length * ID_SIZE);
+        firstParents = firstParents == null ? new int[length] : Arrays.copyOf(firstParents, length);
+        secondParents = secondParents == null ? new int[length] : Arrays.copyOf(secondParents, length);
+        generations = generations == null ? new int[length] : Arrays.copyOf(generations, length);
+        times = times == null ? new long[length] : Arrays.copyOf(times, length);
+        filters = filters == null ? new byte[length][] : Arrays.copyOf(filters, length);
+    }
+
+    /** Return the filter of the paths COMMIT changed against its first
+     *  parent, or MAYBE if that parent was never fetched. */
+    private byte[] changedPathFilter(Commit commit) {
+        List<String> parentIDs = commit.getParentIDs();
+        if (!parentIDs.isEmpty() && !store.contains(parentIDs.get(0))) {
+            return BloomFilter.MAYBE;
+        }
+        String parentTreeID = parentIDs.isEmpty() ? null
+                : Repository.readCommit(store, parentIDs.get(0)).getTreeID();
+        return BloomFilter.of(Tree.diff(store, parentTreeID, commit.getTreeID()).keySet());
+    }
+
+    /** Return the number of commits in the graph. */
+    public int size() {
+        return count;
+    }
+
+    /** Return true if the commit with ID is in the graph. */
+    public boolean contains(String id) {
+        return position(id) >= 0;
+    }
+
+    /** Return the parent ids of the commit with ID. */
+    public List<String> getParentIDs(String id) {
+        int pos = positionOrFail(id);
+        List<String> parentIDs = new ArrayList<>(2);
+        if (firstParents[pos] != NONE) {
+            parentIDs.add(idAt(firstParents[pos]));
+        }
+        if (secondParents[pos] != NONE) {
+            parentIDs.add(idAt(secondParents[pos]));
+        }
+        return parentIDs;
+    }
+
+    /** Return the first parent id of the commit with ID, or null for a root. */
+    public String getFirstParentID(String id) {
+        int parent = firstParents[positionOrFail(id)];
+        return parent == NONE ? null : idAt(parent);
+    }
+
+    /** Return the timestamp in milliseconds of the commit with ID. */
+    public long getTime(String id) {
+        return times[positionOrFail(id)];
+    }
+
+    /** Return false if the commit with ID certainly did not change PATH
+     *  against its first parent. */
+    public boolean mightChange(String id, String path) {
+        return BloomFilter.mightContain(filters[positionOrFail(id)], path);
+    }
+
+    /** Return the latest common ancestor of HEADID and OTHERID.  Both sides
+     *  are walked at once, always expanding the commit with the highest
+     *  generation, so the first commit reached from both sides is a latest
+     *  common ancestor and everything below it can be left unvisited. */
+    public String mergeBase(String headID, String otherID) {
+        int[] flags = new int[count];
+        // How often each commit is queued, and how many entries are not stale
+        int[] queued = new int[count];
+        int live = 0;
+        PriorityQueue<Integer> queue = new PriorityQueue<>(this::compareNewestFirst);
+        int head = positionOrFail(headID);
+        int other = positionOrFail(otherID);
+        flags[head] |= FROM_HEAD;
+        flags[other] |= FROM_OTHER;
+        for (int start : new int[]{head, other}) {
+            queue.add(start);
+            queued[start] += 1;
+            live += 1;
+        }
+
+        int base = NONE;
+        while (live > 0) {
+            int pos = queue.poll();
+            queued[pos] -= 1;
+            int side = flags[pos];
+            if ((side & STALE) == 0) {
+                live -= 1;
+            }
+            if (side == (FROM_HEAD | FROM_OTHER)) {
+                if (base == NONE) {
+                    base = pos;
+                }
+                // Ancestors of a common ancestor cannot be a better answer
+                side |= STALE;
+                flags[pos] |= STALE;
+                live -= queued[pos];
+            }
+            for (int parent : new int[]{firstParents[pos], secondParents[pos]}) {
+                if (parent != NONE && (flags[parent] & side) != side) {
+                    if ((side & STALE) != 0 && (flags[parent] & STALE) == 0) {
+                        live -= queued[parent];
+                    }
+                    flags[parent] |= side;
+                    queue.add(parent);
+                    queued[parent] += 1;
+                    if ((flags[parent] & STALE) == 0) {
+                        live += 1;
+                    }
+                }
+            }
+        }
+        return base == NONE ? null : idAt(base);
+    }
+
+    /** Return true if the commit ANCESTORID is DESCENDANTID or one of its
+     *  ancestors.  Commits whose generation is lower than ANCESTORID's cannot
+     *  lead to it and are not expanded. */
+    public boolean isAncestor(String ancestorID, String descendantID) {
+        int target = position(ancestorID);
+        int start = position(descendantID);
+        if (target < 0 || start < 0) {
+            return false;
+        }
+        BitSet visited = new BitSet(count);
+        Deque<Integer> fringe = new ArrayDeque<>();
+        fringe.push(start);
+        visited.set(start);
+        while (!fringe.isEmpty()) {
+            int pos = fringe.pop();
+            if (pos == target) {
+                return true;
+            }
+            for (int parent : new int[]{firstParents[pos], secondParents[pos]}) {
+                if (parent != NONE && !visited.get(parent)
+                        && generations[parent] >= generations[target]) {
+                    visited.set(parent);
+                    fringe.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Return the ids of START and those of its ancestors that are not
+     *  ancestors of any of HAVEIDS, each before its parents.  Ids in HAVEIDS
+     *  that are not in the graph are ignored, as the other side of a
+     *  transfer may know commits this one does not. */
+    public List<String> ancestorsNotReachableFrom(String startID, Collection<String> haveIDs) {
+        return ancestorsNotReachableFrom(startID, haveIDs, List.of(), 0, new HashSet<>());
+    }
+
+    /** As above, for a side whose history stops at the commits SHALLOWIDS,
+     *  whose parents it does not have.  With a DEPTH above 0, only the
+     *  commits fewer than DEPTH parents away from START are returned, and
+     *  the walk goes on below the commits the other side has, so it gets a
+     *  deeper history of them.  The returned commits with a parent that is
+     *  neither returned nor had by the other side are added to BOUNDARY. */
+    public List<String> ancestorsNotReachableFrom(String startID, Collection<String> haveIDs,
+                                                  Collection<String> shallowIDs, int depth,
+                                                  Set<String> boundary) {
+        // Paint everything the other side already has
+        BitSet had = paintAncestors(haveIDs, shallowIDs);
+
+        int start = positionOrFail(startID);
+        int[] distances = new int[count];
+        BitSet visited = new BitSet(count);
+        List<Integer> found = new ArrayList<>();
+        Deque<Integer> queue = new ArrayDeque<>();
+        queue.add(start);
+        visited.set(start);
+        while (!queue.isEmpty()) {
+            int pos = queue.poll();
+            if (!had.get(pos)) {
+                found.add(pos);
+            } else if (depth == 0) {
+                continue;
+            }
+            if (depth > 0 && distances[pos] + 1 >= depth) {
+                continue;
+            }
+            for (int parent : new int[]{firstParents[pos], secondParents[pos]}) {
+                if (parent != NONE && !visited.get(parent)) {
+                    visited.set(parent);
+                    distances[parent] = distances[pos] + 1;
+                    queue.add(parent);
+                }
+            }
+        }
+        // A parent always has a lower generation than its children
+        found.sort(this::compareNewestFirst);
+
+        BitSet sent = new BitSet(count);
+        found.forEach(sent::set);
+        List<String> missing = new ArrayList<>(found.size());
+        for (int pos : found) {
+            missing.add(idAt(pos));
+            for (int parent : new int[]{firstParents[pos], secondParents[pos]}) {
+                if (parent != NONE && !had.get(parent) && !sent.get(parent)) {
+                    boundary.add(idAt(pos));
+                }
+            }
+        }
+        return missing;
+    }
+
+    /** Return the ids of STARTIDS and all their ancestors that are in the
+     *  graph, in no particular order. */
+    public List<String> ancestorsOf(Collection<String> startIDs) {
+        BitSet reached = paintAncestors(startIDs, List.of());
+        List<String> ancestors = new ArrayList<>(reached.cardinality());
+        for (int pos = reached.nextSetBit(0); pos >= 0; pos = reached.nextSetBit(pos + 1)) {
+            ancestors.add(idAt(pos));
+        }
+        return ancestors;
+    }
+
+    /** Paint STARTIDS and their ancestors, but not the parents of STOPIDS. */
+    private BitSet paintAncestors(Collection<String> startIDs, Collection<String> stopIDs) {
+        BitSet stops = new BitSet(count);
+        for (String stopID : stopIDs) {
+            int pos = position(stopID);
+            if (pos >= 0) {
+                stops.set(pos);
+            }
+        }
+        BitSet painted = new BitSet(count);
+        Deque<Integer> fringe = new ArrayDeque<>();
+        for (String startID : startIDs) {
+            int pos = position(startID);
+            if (pos >= 0 && !painted.get(pos)) {
+                painted.set(pos);
+                fringe.push(pos);
+            }
+        }
+        while (!fringe.isEmpty()) {
+            int pos = fringe.pop();
+            if (stops.get(pos)) {
+                continue;
+            }
+            for (int parent : new int[]{firstParents[pos], secondParents[pos]}) {
+                if (parent != NONE && !painted.get(parent)) {
+                    painted.set(parent);
+                    fringe.push(parent);
+                }
+            }
+        }
+        return painted;
+    }
+
+    private int compareNewestFirst(int a, int b) {
+        if (generations[a] != generations[b]) {
+            return Integer.compare(generations[b], generations[a]);
+        }
+        return Long.compare(times[b], times[a]);
+    }
+
+    /** Sort every commit into a new graph file and drop the tail. */
+    private void fold() {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(ids, a * ID_SIZE, (a + 1) * ID_SIZE,
+                ids, b * ID_SIZE, (b + 1) * ID_SIZE));
+        int[] newPositions = new int[count];
+        for (int i = 0; i < count; i += 1) {
+            newPositions[order[i]] = i;
+        }
+        byte[] sortedIDs = new byte[count * ID_SIZE];
+        int[] sortedFirstParents = new int[count];
+        int[] sortedSecondParents = new int[count];
+        int[] sortedGenerations = new int[count];
+        long[] sortedTimes = new long[count];
+        byte[][] sortedFilters = new byte[count][];
+        for (int i = 0; i < count; i += 1) {
+            int old = order[i];
+            System.arraycopy(ids, old * ID_SIZE, sortedIDs, i * ID_SIZE, ID_SIZE);
+            sortedFirstParents[i] = firstParents[old] == NONE ? NONE : newPositions[firstParents[old]];
+            sortedSecondParents[i] = secondParents[old] == NONE ? NONE : newPositions[secondParents[old]];
+            sortedGenerations[i] = generations[old];
+            sortedTimes[i] = times[old];
+            sortedFilters[i] = filters[old];
+        }
+        ids = sortedIDs;
+        firstParents = sortedFirstParents;
+        secondParents = sortedSecondParents;
+        generations = sortedGenerations;
+        times = sortedTimes;
+        filters = sortedFilters;
+        baseCount = count;
+        tailPositions.clear();
+        write();
+        // A tail left by a crash here names the old count and is ignored
+        tailFile.delete();
+        tailEnd = 0;
+        written = count;
+    }
+
+    private void read() {
+        ByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(graphFile.toPath(), StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        int version;
+        if (buf.getInt() != MAGIC || (version = buf.getInt()) < 1 || version > VERSION) {
+            throw error("Corrupted commit graph in %s.", graphFile.getParent());
+        }
+        count = buf.getInt();
+        baseCount = count;
+        written = count;
+        ids = new byte[count * ID_SIZE];
+        buf.get(ids);
+        firstParents = new int[count];
+        secondParents = new int[count];
+        for (int i = 0; i < count; i += 1) {
+            firstParents[i] = buf.getInt();
+            secondParents[i] = buf.getInt();
+        }
+        generations = new int[count];
+        buf.asIntBuffer().get(generations);
+        buf.position(buf.position() + count * 4);
+        times = new long[count];
+        buf.asLongBuffer().get(times);
+        buf.position(buf.position() + count * 8);
+        filters = new byte[count][];
+        if (version < 2) {
+            Arrays.fill(filters, BloomFilter.MAYBE);
+            return;
+        }
+        int[] ends = new int[count];
+        buf.asIntBuffer().get(ends);
+        buf.position(buf.position() + count * 4);
+        int start = 0;
+        for (int i = 0; i < count; i += 1) {
+            filters[i] = new byte[ends[i] - start];
+            buf.get(filters[i]);
+            start = ends[i];
+        }
+    }
+
+    /** Read the commits of the tail that belongs to the sorted file. */
+    private void readTail() {
+        tailEnd = 0;
+        ByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(tailFile.toPath(), StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            return;
+        }
+        if (buf.remaining() < TAIL_HEADER_SIZE || buf.getInt() != TAIL_MAGIC
+                || buf.getInt() != TAIL_VERSION || buf.getInt() != baseCount) {
+            return;
+        }
+        byte[] id = new byte[ID_SIZE];
+        while (buf.remaining() >= TAIL_RECORD_SIZE) {
+            int pos = count;
+            buf.get(id);
+            int first = buf.getInt();
+            int second = buf.getInt();
+            int generation = buf.getInt();
+            long time = buf.getLong();
+            int filterLength = buf.getInt();
+            if (first < NONE || first >= pos || second < NONE || second >= pos
+                    || filterLength < 0 || filterLength > buf.remaining()) {
+                break;
+            }
+            byte[] filter = new byte[filterLength];
+            buf.get(filter);
+            allocate(pos + 1);
+            System.arraycopy(id, 0, ids, pos * ID_SIZE, ID_SIZE);
+            firstParents[pos] = first;
+            secondParents[pos] = second;
+            generations[pos] = generation;
+            times[pos] = time;
+            filters[pos] = filter;
+            tailPositions.put(bytesToHex(id), pos);
+            count += 1;
+            tailEnd = buf.position();
+        }
+        if (tailEnd == 0) {
+            tailEnd = TAIL_HEADER_SIZE;
+        }
+        written = count;
+    }
+
+    /** Append the commits that are only in memory to the tail. */
+    private void writeTail() {
+        if (written == count) {
+            return;
+        }
+        int filterBytes = 0;
+        for (int pos = written; pos < count; pos += 1) {
+            filterBytes += filters[pos].length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(TAIL_HEADER_SIZE
+                + (count - written) * TAIL_RECORD_SIZE + filterBytes);
+        if (tailEnd == 0) {
+            buf.putInt(TAIL_MAGIC).putInt(TAIL_VERSION).putInt(baseCount);
+        }
+        for (int pos = written; pos < count; pos += 1) {
+            buf.put(ids, pos * ID_SIZE, ID_SIZE);
+            buf.putInt(firstParents[pos]).putInt(secondParents[pos]).putInt(generations[pos]);
+            buf.putLong(times[pos]).putInt(filters[pos].length).put(filters[pos]);
+        }
+        buf.flip();
+        // A record cut short by a crash is written over
+        long position = tailEnd;
+        try (FileChannel out = FileChannel.open(tailFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            while (buf.hasRemaining()) {
+                position += out.write(buf, position);
+            }
+            out.truncate(position);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        tailEnd = position;
+        written = count;
+        Journal.syncBeforeCommit(tailFile);
+    }
+
+    private void write() {
+        int filterBytes = 0;
+        for (int i = 0; i < count; i += 1) {
+            filterBytes += filters[i].length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + count * (ID_SIZE + 8 + 4 + 8 + 4) + filterBytes);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(count);
+        buf.put(ids);
+        for (int i = 0; i < count; i += 1) {
+            buf.putInt(firstParents[i]).putInt(secondParents[i]);
+        }
+        for (int generation : generations) {
+            buf.putInt(generation);
+        }
+        for (long time : times) {
+            buf.putLong(time);
+        }
+        int end = 0;
+        for (byte[] filter : filters) {
+            end += filter.length;
+            buf.putInt(end);
+        }
+        for (byte[] filter : filters) {
+            buf.put(filter);
+        }
+        buf.flip();
+        File tmp = join(graphFile.getParentFile(), graphFile.getName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), graphFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.syncBeforeCommit(graphFile);
+    }
+
+    /** Return the ids that start with PREFIX, in order.  The first one is
+     *  found by binary search, so this costs O(log n) plus the matches. */
+    public List<String> idsWithPrefix(String prefix) {
+        StringBuilder lowest = new StringBuilder(prefix);
+        while (lowest.length() < UID_LENGTH) {
+            lowest.append('0');
+        }
+        byte[] key = hexToBytes(lowest.toString());
+        int lo = 0;
+        int hi = baseCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Arrays.compareUnsigned(ids, mid * ID_SIZE, (mid + 1) * ID_SIZE, key, 0, ID_SIZE) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        List<String> matches = new ArrayList<>();
+        for (int pos = lo; pos < baseCount && idAt(pos).startsWith(prefix); pos += 1) {
+            matches.add(idAt(pos));
+        }
+        // The tail is short and unsorted
+        for (String id : tailPositions.keySet()) {
+            if (id.startsWith(prefix)) {
+                matches.add(id);
+            }
+        }
+        matches.sort(null);
+        return matches;
+    }
+
+    /** Return the position of ID, or -1. */
+    private int position(String id) {
+        if (id == null || id.length() != UID_LENGTH) {
+            return NONE;
+        }
+        Integer tailPosition = tailPositions.get(id);
+        if (tailPosition != null) {
+            return tailPosition;
+        }
+        byte[] key = hexToBytes(id);
+        int lo = 0;
+        int hi = baseCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = Arrays.compareUnsigned(ids, mid * ID_SIZE, (mid + 1) * ID_SIZE,
+                    key, 0, ID_SIZE);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return NONE;
+    }
+
+    /** Return the position of ID, first adding it from the store if it was
+     *  written by something that did not update the graph.  It is only added
+     *  in memory, as this may run under a shared lock; the next command that
+     *  adds commits writes it too. */
+    private int positionOrFail(String id) {
+        int pos = position(id);
+        if (pos == NONE && store.contains(id)) {
+            insert(List.of(Repository.readCommit(store, id)));
+            pos = position(id);
+        }
+        if (pos == NONE) {
+            throw error("No commit with id %s in the commit graph.", id);
+        }
+        return pos;
+    }
+
+    private String idAt(int pos) {
+        return bytesToHex(Arrays.copyOfRange(ids, pos * ID_SIZE, (pos + 1) * ID_SIZE));
+    }
+}
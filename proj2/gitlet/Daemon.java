@@ -0,0 +1,291 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.MyUtils.bytesToHex;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** A long-running gitlet process that keeps the repository's state warm
+ *  (JIT-compiled code, object caches, commit graph and index) and runs
+ *  commands sent by Client, one at a time.
+ *
+ *  It listens on the Unix-domain socket .gitlet/daemon.sock, or, where
+ *  that is not possible, on a loopback TCP port written to
+ *  .gitlet/daemon.port, and writes a random token to .gitlet/daemon.token
+ *  once it is listening.  The socket and the token are readable and
+ *  writable by their owner only.  A request is the token, the client's
+ *  working directory and the command's arguments, and is refused unless
+ *  it has the right token, so only someone who can read the token file
+ *  can run commands.  A client has REQUEST_TIMEOUT to send its request,
+ *  so one that sends nothing does not hold up the others.  The reply is
+ *  the exit status and everything the command printed to standard output
+ *  and standard error.
+ *
+ *  Once a command holds the repository lock, the daemon compares the
+ *  journal's generation and the size and modification time of the commit
+ *  graph, the message log, the pack index and the index with what they
+ *  were when its last command let go of the lock, and drops its cached
+ *  state if another process has changed any of them.  Main calls
+ *  checkStamp and saveStamp while it holds the lock, so no other writer
+ *  can slip in between the check and the command, or between the command
+ *  and the new stamp.
+ *  @author Yun Zhu
+ */
+public class Daemon {
+    public static final File SOCKET_FILE = join(GITLET_DIR, "daemon.sock");
+    public static final File PORT_FILE = join(GITLET_DIR, "daemon.port");
+    public static final File TOKEN_FILE = join(GITLET_DIR, "daemon.token");
+
+    /** Exit status of a command that failed with an exception. */
+    private static final int FAILED = 1;
+    private static final int TOKEN_LENGTH = 16;
+    private static final int MAX_ARGS = 256;
+    /** Milliseconds a client has to send its whole request. */
+    private static final long REQUEST_TIMEOUT = 10_000;
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+
+    /** The daemon serving in this process, or null if there is none. */
+    private static Daemon running;
+
+    private ServerSocketChannel server;
+    /** What every request has to start with. */
+    private String token;
+    /** Closes the connection of a client that is too slow with its request. */
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "daemon-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** The repository as the last command left it, or null before the first. */
+    private String stamp;
+
+    /** Serve commands until a client sends STOP. */
+    public static void serve() {
+        try (SocketChannel running = Client.connect(GITLET_DIR)) {
+            if (running != null) {
+                printAndExit("A daemon is already running for this repository.");
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Daemon daemon = new Daemon();
+        daemon.listen();
+        Runtime.getRuntime().addShutdownHook(new Thread(Daemon::removeAddressFiles));
+        running = daemon;
+        try {
+            daemon.loop();
+        } finally {
+            running = null;
+            removeAddressFiles();
+        }
+    }
+
+    /** Drop the cached state if another process changed the repository
+     *  since the last command.  Called with the repository locked. */
+    static void checkStamp() {
+        if (running != null && !currentStamp().equals(running.stamp)) {
+            resetCaches();
+        }
+    }
+
+    /** Remember the repository as this command leaves it.  Called before
+     *  the repository is unlocked. */
+    static void saveStamp() {
+        if (running != null) {
+            running.stamp = currentStamp();
+        }
+    }
+
+    private void listen() {
+        try {
+            bind();
+            byte[] random = new byte[TOKEN_LENGTH];
+            new SecureRandom().nextBytes(random);
+            token = bytesToHex(random);
+            // Restrict the file before the token is in it
+            Files.deleteIfExists(TOKEN_FILE.toPath());
+            Files.createFile(TOKEN_FILE.toPath());
+            restrictToOwner(TOKEN_FILE);
+            writeContents(TOKEN_FILE, token);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private void bind() throws IOException {
+        try {
+            Files.deleteIfExists(SOCKET_FILE.toPath());
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(UnixDomainSocketAddress.of(SOCKET_FILE.toPath()));
+            restrictToOwner(SOCKET_FILE);
+            return;
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException excp) {
+            // Too long a path or no Unix-domain sockets here: use loopback TCP
+        }
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+        writeContents(PORT_FILE, Integer.toString(port));
+    }
+
+    /** Let only the owner read and write FILE, where permissions are POSIX. */
+    private static void restrictToOwner(File file) throws IOException {
+        try {
+            Files.setPosixFilePermissions(file.toPath(), OWNER_ONLY);
+        } catch (UnsupportedOperationException excp) {
+            // Not a POSIX file system: the file's directory has to protect it
+        }
+    }
+
+    private void loop() {
+        while (true) {
+            try (SocketChannel channel = server.accept()) {
+                DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+                DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+                // Closing the channel ends a read that is still waiting
+                ScheduledFuture<?> timeout = watchdog.schedule(() -> closeQuietly(channel),
+                        REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+                // The whole request is read first, so a refused client is not cut off mid-write
+                String requestToken = in.readUTF();
+                String cwd = in.readUTF();
+                int argCount = in.readInt();
+                if (argCount < 0 || argCount > MAX_ARGS) {
+                    continue;
+                }
+                String[] args = new String[argCount];
+                for (int i = 0; i < args.length; i += 1) {
+                    args[i] = in.readUTF();
+                }
+                if (!timeout.cancel(false)) {
+                    continue;
+                }
+                if (!token.equals(requestToken)) {
+                    reply(out, FAILED, new byte[0], refusal("The daemon refused the request."));
+                    continue;
+                }
+                if (List.of(args).equals(Client.STOP)) {
+                    // Gone before the client hears back, so it can start another daemon at once
+                    removeAddressFiles();
+                    reply(out, 0, new byte[0], new byte[0]);
+                    watchdog.shutdownNow();
+                    return;
+                }
+                if (!new File(cwd).getCanonicalFile().equals(CWD.getCanonicalFile())) {
+                    reply(out, FAILED, new byte[0], refusal("This daemon serves " + CWD.getPath()));
+                    continue;
+                }
+                handle(args, out);
+            } catch (IOException | RuntimeException excp) {
+                // A client that went away or sent garbage only loses its own reply
+            }
+        }
+    }
+
+    private static byte[] refusal(String message) {
+        return (message + System.lineSeparator()).getBytes();
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException excp) {
+            // Closed already
+        }
+    }
+
+    /** Run the command ARGS with its output captured and send the reply to OUT. */
+    private void handle(String[] args, DataOutputStream out) throws IOException {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream capturedOut = new ByteArrayOutputStream();
+        ByteArrayOutputStream capturedErr = new ByteArrayOutputStream();
+        int status = 0;
+        try {
+            System.setOut(new PrintStream(capturedOut, true));
+            System.setErr(new PrintStream(capturedErr, true));
+            Main.run(args);
+        } catch (CommandExit excp) {
+            status = 0;
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            status = FAILED;
+            resetCaches();
+        } catch (RuntimeException | Error excp) {
+            excp.printStackTrace();
+            status = FAILED;
+            // A half-finished command may have left the caches out of step
+            resetCaches();
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        reply(out, status, capturedOut.toByteArray(), capturedErr.toByteArray());
+    }
+
+    private static void reply(DataOutputStream out, int status, byte[] stdout, byte[] stderr)
+            throws IOException {
+        out.writeInt(status);
+        out.writeInt(stdout.length);
+        out.write(stdout);
+        out.writeInt(stderr.length);
+        out.write(stderr);
+        out.flush();
+    }
+
+    /** Return a summary of the size and modification time of every file
+     *  whose contents the daemon keeps in memory.  HEAD, the branches, the
+     *  remotes, the staging area and the shallow and promised lists only
+     *  change through the journal, which counts its commits. */
+    private static String currentStamp() {
+        StringBuilder stamp = new StringBuilder();
+        stamp.append("generation:").append(Journal.generation()).append(';');
+        stampFile(stamp, join(GITLET_DIR, "commit-graph"));
+        stampFile(stamp, join(GITLET_DIR, "commit-graph.tail"));
+        stampFile(stamp, join(GITLET_DIR, "index"));
+        stampFile(stamp, join(GITLET_DIR, "messages", "log"));
+        stampFile(stamp, join(PACK_FOLDER, "objects.idx"));
+        return stamp.toString();
+    }
+
+    private static void stampFile(StringBuilder stamp, File file) {
+        stamp.append(file.getName()).append(':');
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            stamp.append(attrs.size()).append(':')
+                    .append(attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+        } catch (IOException excp) {
+            stamp.append('-');
+        }
+        stamp.append(';');
+    }
+
+    private static void removeAddressFiles() {
+        SOCKET_FILE.delete();
+        PORT_FILE.delete();
+        TOKEN_FILE.delete();
+    }
+}
@@ -0,0 +1,142 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** Encodes a file version as the differences from another version, in the
+ *  style of rsync and xdelta.  The base is cut into blocks that are indexed
+ *  by a rolling hash; a window slides over the target one byte at a time,
+ *  and every window whose hash and bytes match a block becomes a copy from
+ *  the base, grown as far as the bytes keep matching in both directions.
+ *  Everything else is inserted literally.
+ *
+ *  A delta is the target length followed by instructions, with all
+ *  numbers as unsigned varints: INSERT LENGTH BYTES, or COPY OFFSET LENGTH.
+ *  @author Yun Zhu
+ */
+public class Delta {
+    private static final int BLOCK_SIZE = 16;
+    private static final int PRIME = 31;
+    private static final byte INSERT = 0;
+    private static final byte COPY = 1;
+
+    /** Return the delta that turns BASE into TARGET. */
+    public static byte[] compute(byte[] base, byte[] target) {
+        Map<Integer, Integer> blocks = new HashMap<>();
+        for (int offset = 0; offset + BLOCK_SIZE <= base.length; offset += BLOCK_SIZE) {
+            blocks.putIfAbsent(hash(base, offset), offset);
+        }
+        // PRIME ^ (BLOCK_SIZE - 1), to take the oldest byte out of the window
+        int outFactor = 1;
+        for (int i = 1; i < BLOCK_SIZE; i += 1) {
+            outFactor *= PRIME;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(target.length / 4 + 16);
+        writeVarint(out, target.length);
+        int literalStart = 0;
+        int pos = 0;
+        int h = target.length >= BLOCK_SIZE ? hash(target, 0) : 0;
+        while (pos + BLOCK_SIZE <= target.length) {
+            Integer match = blocks.get(h);
+            if (match != null && Arrays.equals(base, match, match + BLOCK_SIZE,
+                    target, pos, pos + BLOCK_SIZE)) {
+                int start = pos;
+                int from = match;
+                while (start > literalStart && from > 0 && base[from - 1] == target[start - 1]) {
+                    start -= 1;
+                    from -= 1;
+                }
+                int end = pos + BLOCK_SIZE;
+                int baseEnd = match + BLOCK_SIZE;
+                while (end < target.length && baseEnd < base.length && base[baseEnd] == target[end]) {
+                    end += 1;
+                    baseEnd += 1;
+                }
+                writeInsert(out, target, literalStart, start);
+                out.write(COPY);
+                writeVarint(out, from);
+                writeVarint(out, end - start);
+                pos = end;
+                literalStart = end;
+                if (pos + BLOCK_SIZE <= target.length) {
+                    h = hash(target, pos);
+                }
+                continue;
+            }
+            if (pos + BLOCK_SIZE < target.length) {
+                h = (h - (target[pos] & 0xff) * outFactor) * PRIME + (target[pos + BLOCK_SIZE] & 0xff);
+            }
+            pos += 1;
+        }
+        writeInsert(out, target, literalStart, target.length);
+        return out.toByteArray();
+    }
+
+    /** Return the target rebuilt from BASE and DELTA. */
+    public static byte[] apply(byte[] base, byte[] delta) {
+        ByteBuffer in = ByteBuffer.wrap(delta);
+        byte[] target = new byte[readVarint(in)];
+        int pos = 0;
+        while (in.hasRemaining()) {
+            byte op = in.get();
+            if (op == COPY) {
+                int offset = readVarint(in);
+                int length = readVarint(in);
+                System.arraycopy(base, offset, target, pos, length);
+                pos += length;
+            } else if (op == INSERT) {
+                int length = readVarint(in);
+                in.get(target, pos, length);
+                pos += length;
+            } else {
+                throw error("Corrupted delta.");
+            }
+        }
+        if (pos != target.length) {
+            throw error("Corrupted delta.");
+        }
+        return target;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        if (from < to) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    private static int hash(byte[] data, int offset) {
+        int h = 0;
+        for (int i = offset; i < offset + BLOCK_SIZE; i += 1) {
+            h = h * PRIME + (data[i] & 0xff);
+        }
+        return h;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
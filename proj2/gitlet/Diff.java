@@ -0,0 +1,336 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Line-level differences between two texts, with Myers' O(ND) algorithm
+ *  in its linear-space form: the middle snake of the edit graph is found
+ *  by searching from both corners at once, and the two halves on either
+ *  side of it are diffed recursively.  Common prefixes and suffixes are
+ *  matched before each search.
+ *
+ *  Large files are first cut at anchors, as in patience diff: the lines
+ *  that occur exactly once in each file, kept in the longest run that
+ *  is in the same order in both.  Myers then only runs between anchors,
+ *  which is much faster on big files and keeps moved blocks readable.
+ *  @author Yun Zhu
+ */
+public class Diff {
+    /** Files with at least this many lines between them are anchored first. */
+    private static final int PATIENCE_MIN_LINES = 2048;
+    /** Lines of unchanged context around each change in a unified diff. */
+    private static final int CONTEXT = 3;
+
+    private final int[] a;
+    private final int[] b;
+    private final int[] matches;
+
+    private Diff(int[] a, int[] b) {
+        this.a = a;
+        this.b = b;
+        this.matches = new int[a.length];
+        Arrays.fill(matches, -1);
+    }
+
+    /** Return, for every line of A, the index of the line of B it is kept
+     *  as in a shortest edit script from A to B, or -1 if it is deleted.
+     *  Lines are compared by their ids, as given by intern. */
+    public static int[] match(int[] a, int[] b) {
+        Diff diff = new Diff(a, b);
+        if (a.length + b.length >= PATIENCE_MIN_LINES) {
+            diff.compareAnchored();
+        } else {
+            diff.compare(0, a.length, 0, b.length);
+        }
+        return diff.matches;
+    }
+
+    /** Write the changes from OLDTEXT to NEWTEXT of the file NAME to OUT as
+     *  a unified diff, a null text meaning the file is absent.  Nothing is
+     *  written for equal texts. */
+    public static void writeUnified(Writer out, String name, String oldText, String newText)
+            throws IOException {
+        List<String> oldLines = oldText == null ? List.of() : lines(oldText);
+        List<String> newLines = newText == null ? List.of() : lines(newText);
+        int[][] ids = intern(List.of(oldLines, newLines));
+        List<int[]> changes = changes(match(ids[0], ids[1]), oldLines.size(), newLines.size());
+        if (changes.isEmpty() && (oldText == null) == (newText == null)) {
+            return;
+        }
+        out.write("--- " + (oldText == null ? "/dev/null" : "a/" + name) + "\n");
+        out.write("+++ " + (newText == null ? "/dev/null" : "b/" + name) + "\n");
+
+        int first = 0;
+        while (first < changes.size()) {
+            // Changes closer than twice the context share a hunk
+            int last = first;
+            while (last + 1 < changes.size()
+                    && changes.get(last + 1)[0] - changes.get(last)[1] <= 2 * CONTEXT) {
+                last += 1;
+            }
+            int[] start = changes.get(first);
+            int[] end = changes.get(last);
+            int oldLo = Math.max(0, start[0] - CONTEXT);
+            int newLo = start[2] - (start[0] - oldLo);
+            int oldHi = Math.min(oldLines.size(), end[1] + CONTEXT);
+            int newHi = end[3] + (oldHi - end[1]);
+            out.write("@@ -" + range(oldLo, oldHi - oldLo) + " +" + range(newLo, newHi - newLo) + " @@\n");
+
+            int i = oldLo;
+            for (int c = first; c <= last; c += 1) {
+                int[] change = changes.get(c);
+                writeLines(out, ' ', oldLines, i, change[0]);
+                writeLines(out, '-', oldLines, change[0], change[1]);
+                writeLines(out, '+', newLines, change[2], change[3]);
+                i = change[1];
+            }
+            writeLines(out, ' ', oldLines, i, oldHi);
+            first = last + 1;
+        }
+    }
+
+    /** Split TEXT into lines, each keeping its line terminator. */
+    public static List<String> lines(String text) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            if (text.charAt(i) == '\n') {
+                lines.add(text.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (start < text.length()) {
+            lines.add(text.substring(start));
+        }
+        return lines;
+    }
+
+    /** Return the lines of every text in TEXTS as ids, equal ids meaning
+     *  equal lines across all of them. */
+    public static int[][] intern(List<List<String>> texts) {
+        Map<String, Integer> ids = new HashMap<>();
+        int[][] result = new int[texts.size()][];
+        for (int t = 0; t < texts.size(); t += 1) {
+            List<String> lines = texts.get(t);
+            result[t] = new int[lines.size()];
+            for (int i = 0; i < lines.size(); i += 1) {
+                Integer id = ids.putIfAbsent(lines.get(i), ids.size());
+                result[t][i] = id == null ? ids.size() - 1 : id;
+            }
+        }
+        return result;
+    }
+
+    /** Diff the whole of A and B, matching their unique common lines first. */
+    private void compareAnchored() {
+        int distinct = 0;
+        for (int id : a) {
+            distinct = Math.max(distinct, id + 1);
+        }
+        for (int id : b) {
+            distinct = Math.max(distinct, id + 1);
+        }
+        int[] aCounts = new int[distinct];
+        int[] bCounts = new int[distinct];
+        int[] bPositions = new int[distinct];
+        for (int id : a) {
+            aCounts[id] += 1;
+        }
+        for (int j = 0; j < b.length; j += 1) {
+            bCounts[b[j]] += 1;
+            bPositions[b[j]] = j;
+        }
+
+        // Longest increasing run of B positions among the unique lines, by patience sorting
+        List<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i < a.length; i += 1) {
+            if (aCounts[a[i]] == 1 && bCounts[a[i]] == 1) {
+                candidates.add(i);
+            }
+        }
+        int[] tails = new int[candidates.size()];
+        int[] previous = new int[candidates.size()];
+        int piles = 0;
+        for (int c = 0; c < candidates.size(); c += 1) {
+            int position = bPositions[a[candidates.get(c)]];
+            int lo = 0;
+            int hi = piles;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (bPositions[a[candidates.get(tails[mid])]] < position) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[c] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = c;
+            piles = Math.max(piles, lo + 1);
+        }
+        int[] anchors = new int[piles];
+        for (int c = piles > 0 ? tails[piles - 1] : -1, k = piles - 1; c >= 0; c = previous[c], k -= 1) {
+            anchors[k] = candidates.get(c);
+        }
+
+        int aLo = 0;
+        int bLo = 0;
+        for (int i : anchors) {
+            int j = bPositions[a[i]];
+            compare(aLo, i, bLo, j);
+            matches[i] = j;
+            aLo = i + 1;
+            bLo = j + 1;
+        }
+        compare(aLo, a.length, bLo, b.length);
+    }
+
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            matches[aLo] = bLo;
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            matches[aHi - 1] = bHi - 1;
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+        bisect(aLo, aHi, bLo, bHi);
+    }
+
+    /** Find the middle snake of A[ALO..AHI) against B[BLO..BHI) and diff
+     *  the two sides of it. */
+    private void bisect(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int[] forward = new int[2 * maxD + 2];
+        int[] backward = new int[2 * maxD + 2];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        // With an odd delta the paths can only meet on a forward step
+        boolean front = (delta & 1) != 0;
+        // Diagonals that have run off the edge of the graph are skipped
+        int kStart = 0;
+        int kEnd = 0;
+        int rStart = 0;
+        int rEnd = 0;
+
+        for (int d = 0; d < maxD; d += 1) {
+            for (int k = -d + kStart; k <= d - kEnd; k += 2) {
+                int x;
+                if (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])) {
+                    x = forward[offset + k + 1];
+                } else {
+                    x = forward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                if (x > n) {
+                    kEnd += 2;
+                } else if (y > m) {
+                    kStart += 2;
+                } else if (front) {
+                    int r = offset + delta - k;
+                    if (r >= 0 && r < backward.length && backward[r] != -1 && x >= n - backward[r]) {
+                        split(aLo, aHi, bLo, bHi, x, y);
+                        return;
+                    }
+                }
+            }
+            for (int k = -d + rStart; k <= d - rEnd; k += 2) {
+                int x;
+                if (k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])) {
+                    x = backward[offset + k + 1];
+                } else {
+                    x = backward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + k] = x;
+                if (x > n) {
+                    rEnd += 2;
+                } else if (y > m) {
+                    rStart += 2;
+                } else if (!front) {
+                    int f = offset + delta - k;
+                    if (f >= 0 && f < forward.length && forward[f] != -1) {
+                        int fx = forward[f];
+                        int fy = fx - (f - offset);
+                        if (fx >= n - x) {
+                            split(aLo, aHi, bLo, bHi, fx, fy);
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+        // No line in common
+    }
+
+    private void split(int aLo, int aHi, int bLo, int bHi, int x, int y) {
+        compare(aLo, aLo + x, bLo, bLo + y);
+        compare(aLo + x, aHi, bLo + y, bHi);
+    }
+
+    /** Return the changed regions of a diff with MATCHES from N lines to M
+     *  lines, as {old start, old end, new start, new end}. */
+    private static List<int[]> changes(int[] matches, int n, int m) {
+        List<int[]> changes = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if (i < n && matches[i] == j) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int oldStart = i;
+            int newStart = j;
+            while (i < n && matches[i] < 0) {
+                i += 1;
+            }
+            j = i < n ? matches[i] : m;
+            changes.add(new int[] {oldStart, i, newStart, j});
+        }
+        return changes;
+    }
+
+    private static String range(int start, int length) {
+        if (length == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (length == 0 ? start : start + 1) + "," + length;
+    }
+
+    private static void writeLines(Writer out, char prefix, List<String> lines, int from, int to)
+            throws IOException {
+        for (int i = from; i < to; i += 1) {
+            String line = lines.get(i);
+            out.write(prefix);
+            out.write(line);
+            if (!line.endsWith("\n")) {
+                out.write("\n\\ No newline at end of file\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** Deletes the objects that nothing points to any more: commits left
+ *  behind by reset or rm-branch, and the trees and blobs only they used.
+ *
+ *  Marking starts from HEAD and every branch, remote-tracking branches
+ *  included, and walks the commit graph for their ancestors.  The trees
+ *  of those commits are walked once each, shared subtrees included, and
+ *  every live blob keeps the chain of bases it is a delta against.  Staged
+ *  blobs are live as well.  The sweep writes a new pack with the live
+ *  objects only (see PackObjectStore.prune).  All of this runs with the
+ *  repository locked shared, so commands that only read keep running
+ *  while it happens.  gc then upgrades to the exclusive lock to put the new
+ *  pack in place and rebuild the commit graph and the message index from
+ *  the commits that are left.  The upgrade lets go of the lock for a
+ *  moment, so if a writer got in, gc marks and sweeps again while it holds
+ *  the lock alone.
+ *  @author Yun Zhu
+ */
+public class GarbageCollector {
+    private final ObjectStore store;
+    private final PromisorObjectStore promises;
+    private final Set<String> live = new HashSet<>();
+
+    private GarbageCollector(ObjectStore store) {
+        this.store = store;
+        this.promises = new PromisorObjectStore(GITLET_DIR, store);
+    }
+
+    /** Delete every unreachable object and print what was reclaimed. */
+    public static void collect() {
+        long start = System.nanoTime();
+        while (true) {
+            long generation = Journal.generation();
+            PackObjectStore store = new PackObjectStore(GITLET_DIR);
+            GarbageCollector collector = new GarbageCollector(store);
+            List<String> commitIDs = collector.mark();
+            PackObjectStore.Pruned pruned = store.prune(collector.live);
+            RepositoryLock.upgrade();
+            if (Journal.generation() != generation || !store.isCurrent(pruned)) {
+                // A writer got in while the lock changed hands
+                continue;
+            }
+            store.install(pruned);
+            resetCaches();
+            CommitGraph.rebuild(GITLET_DIR, store);
+            MessageIndex.rebuild(GITLET_DIR, store);
+
+            System.out.println("Removed " + pruned.getObjects() + " unreachable objects, reclaimed "
+                    + pruned.getBytes() + " bytes.");
+            Stats.report("gc: %d commits and %d objects live in %.1f ms",
+                    commitIDs.size(), collector.live.size(), (System.nanoTime() - start) / 1e6);
+            return;
+        }
+    }
+
+    /** Mark every live object and return the live commits. */
+    private List<String> mark() {
+        List<String> rootIDs = new ArrayList<>();
+        rootIDs.add(getCurrentCommit().getCommitID());
+        for (String branchName : branchNames()) {
+            rootIDs.add(extractBranchThenGetCommitID(branchName));
+        }
+        List<String> commitIDs = commitGraph().ancestorsOf(rootIDs);
+        for (String commitID : commitIDs) {
+            live.add(commitID);
+            markTree(readCommit(store, commitID).getTreeID());
+        }
+        // Blobs are stored by add, so the staged ones are live before any commit uses them
+        for (String blobID : staging().getBlobIDs()) {
+            markBlob(blobID);
+        }
+        return commitIDs;
+    }
+
+    private void markTree(String treeID) {
+        if (!live.add(treeID)) {
+            return;
+        }
+        Tree tree = Tree.read(store, treeID);
+        for (String subtreeID : tree.getSubtreeIDs()) {
+            markTree(subtreeID);
+        }
+        for (String blobID : tree.getBlobIDs()) {
+            markBlob(blobID);
+        }
+    }
+
+    private void markBlob(String blobID) {
+        // A live delta keeps its whole base chain alive, and a promised blob is not here to keep
+        for (String id = blobID; id != null && live.add(id); id = promises.isPromised(id) ? null
+                : Blob.baseOf(store, id)) {
+            continue;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Utils.*;
+
+/** The working tree index (.gitlet/index).  For every path that has been
+ *  hashed it remembers the file's size, modification time and file id, so
+ *  a file whose stat data has not changed is never read or hashed again.
+ *  For every directory WorkingTree has walked it remembers the directory's
+ *  modification time and what was in it, so a directory nothing has been
+ *  added to, removed from or renamed in is never listed again.
+ *
+ *  An entry whose modification time is not older than the index file itself
+ *  is "racy": the file may have been changed again within the same clock
+ *  tick after it was hashed, so such entries are always re-hashed, and
+ *  racy directories are always listed.
+ *  @author Yun Zhu
+ */
+public class Index {
+    private static final int MAGIC = 0x474c494e; // "GLIN"
+    private static final int VERSION = 3;
+
+    /** What the index remembers about one working file. */
+    private static class Entry {
+        private long size;
+        private long mtime;
+        private String fileID;
+
+        Entry(long size, long mtime, String fileID) {
+            this.size = size;
+            this.mtime = mtime;
+            this.fileID = fileID;
+        }
+    }
+
+    /** The plain files and subdirectories of one directory, by name. */
+    static class Listing {
+        private final long mtime;
+        private final List<String> files;
+        private final List<String> dirs;
+
+        Listing(long mtime, List<String> files, List<String> dirs) {
+            this.mtime = mtime;
+            this.files = files;
+            this.dirs = dirs;
+        }
+
+        List<String> getFiles() {
+            return files;
+        }
+
+        List<String> getDirs() {
+            return dirs;
+        }
+    }
+
+    private File indexFile;
+    private File workDir;
+    private TreeMap<String, Entry> entries;
+    /** Directory path ("" for the top) -> its last listing. */
+    private TreeMap<String, Listing> listings;
+    private Set<String> listed = ConcurrentHashMap.newKeySet();
+    private long savedAt;
+    private boolean dirty;
+
+    private Index(File gitletDir) {
+        this.indexFile = join(gitletDir, "index");
+        this.workDir = gitletDir.getParentFile();
+        this.entries = new TreeMap<>();
+        this.listings = new TreeMap<>();
+    }
+
+    /** Open the index of GITLETDIR, starting empty if there is none. */
+    public static Index open(File gitletDir) {
+        Index index = new Index(gitletDir);
+        if (index.indexFile.isFile()) {
+            index.read();
+        }
+        return index;
+    }
+
+    /** Return the file id of the working file at PATH, which has to exist,
+     *  hashing it only if its size or modification time differ from what
+     *  the index remembers. */
+    public String getFileID(String path) {
+        File file = join(workDir, path);
+        BasicFileAttributes attrs = stat(file);
+        long size = attrs.size();
+        long mtime = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        Entry entry = entries.get(path);
+        if (entry != null && entry.size == size && entry.mtime == mtime && mtime < savedAt) {
+            return entry.fileID;
+        }
+        String fileID = MyUtils.getFileID(path, Blob.hash(file));
+        entries.put(path, new Entry(size, mtime, fileID));
+        dirty = true;
+        return fileID;
+    }
+
+    /** Return the listing of the working directory at PATH ("" for the
+     *  top), or null if there is no such directory.  The directory is only
+     *  read if its modification time differs from the one remembered.
+     *  Safe to call from several threads at once. */
+    public Listing list(String path) {
+        File dir = path.isEmpty() ? workDir : join(workDir, path);
+        BasicFileAttributes attrs = stat(dir);
+        if (attrs == null || !attrs.isDirectory()) {
+            return null;
+        }
+        listed.add(path);
+        long mtime = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        synchronized (this) {
+            Listing listing = listings.get(path);
+            if (listing != null && listing.mtime == mtime && mtime < savedAt) {
+                return listing;
+            }
+        }
+        String[] names = dir.list();
+        if (names == null) {
+            return null;
+        }
+        Arrays.sort(names);
+        List<String> files = new ArrayList<>();
+        List<String> dirs = new ArrayList<>();
+        for (String name : names) {
+            File child = new File(dir, name);
+            if (child.isFile()) {
+                files.add(name);
+            } else if (child.isDirectory()) {
+                dirs.add(name);
+            }
+        }
+        Listing listing = new Listing(mtime, files, dirs);
+        synchronized (this) {
+            listings.put(path, listing);
+            dirty = true;
+        }
+        return listing;
+    }
+
+    /** Forget the directories that were not listed since the index was
+     *  opened, after a walk of the whole working tree. */
+    public synchronized void forgetUnlisted() {
+        if (listings.keySet().retainAll(listed)) {
+            dirty = true;
+        }
+    }
+
+    /** Write the index back if anything changed since it was opened. */
+    public void save() {
+        if (!dirty) {
+            return;
+        }
+        // Readers save it side by side under a shared lock, each from a file of its own
+        File tmp = join(indexFile.getParentFile(),
+                indexFile.getName() + "." + ProcessHandle.current().pid() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().size);
+                out.writeLong(e.getValue().mtime);
+                out.write(hexToBytes(e.getValue().fileID));
+            }
+            out.writeInt(listings.size());
+            for (Map.Entry<String, Listing> e : listings.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().mtime);
+                writeNames(out, e.getValue().files);
+                writeNames(out, e.getValue().dirs);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), indexFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        savedAt = stat(indexFile).lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        dirty = false;
+    }
+
+    private void read() {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(indexFile.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                // An unreadable index is only a cache; start over
+                return;
+            }
+            int n = in.readInt();
+            byte[] id = new byte[UID_LENGTH / 2];
+            for (int i = 0; i < n; i += 1) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                in.readFully(id);
+                entries.put(path, new Entry(size, mtime, bytesToHex(id)));
+            }
+            int dirs = in.readInt();
+            for (int i = 0; i < dirs; i += 1) {
+                String path = in.readUTF();
+                long mtime = in.readLong();
+                listings.put(path, new Listing(mtime, readNames(in), readNames(in)));
+            }
+        } catch (IOException excp) {
+            entries.clear();
+            listings.clear();
+            return;
+        }
+        savedAt = stat(indexFile).lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    private static void writeNames(DataOutputStream out, List<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+
+    private static List<String> readNames(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        List<String> names = new ArrayList<>(n);
+        for (int i = 0; i < n; i += 1) {
+            names.add(in.readUTF());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,377 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** Makes the ref and staging updates of one command atomic and durable.
+ *
+ *  While a command runs, writes and deletes of HEAD, the branches, the
+ *  remotes, the staging area and the shallow and promised lists of fetch
+ *  are only recorded here; Utils reads them back, so the command sees its own
+ *  changes.  When the command ends, commit():
+ *    1. syncs the objects, commit graph and message index files written
+ *       during the command, so no ref can point at something that is not
+ *       on disk;
+ *    2. writes every recorded change to .gitlet/journal with a checksum
+ *       and syncs it, which is the point the command takes effect;
+ *    3. applies the changes, each written file replaced by an atomic
+ *       rename and the branches updated in one batch of the ref table,
+ *       syncs them and deletes the journal.
+ *  Every journal also writes .gitlet/generation, a counter one higher than
+ *  before, so a process that caches what these files hold can tell that
+ *  another command changed any of them by reading one file.
+ *  Branches are recorded as writes and deletes of .gitlet/branch/NAME,
+ *  where they were kept before the ref table.
+ *  A command that fails with an exception discards its changes.  The next
+ *  command to start after a crash replays a complete journal and throws
+ *  away a torn one.
+ *
+ *  A branch update can be made conditional on the commit id the branch had
+ *  when the command read it.  commit() checks every such expectation
+ *  before step 2 and fails, changing nothing, if another command moved
+ *  the branch meanwhile.  Under the repository lock that only happens if
+ *  something wrote the branch without taking the lock, or the daemon
+ *  worked from a stale cache.
+ *
+ *  A journal is MAGIC VERSION COUNT followed by COUNT records
+ *  OP(1) PATH_SIZE(2) PATH LENGTH(4) DATA(LENGTH), PATH relative to
+ *  .gitlet in UTF-8, and the CRC-32 of everything before it.
+ *  @author Yun Zhu
+ */
+public class Journal {
+    private static final int MAGIC = 0x474c4a4e; // "GLJN"
+    private static final int VERSION = 1;
+    private static final byte WRITE = 1;
+    private static final byte DELETE = 2;
+
+    /** File -> new contents, or null for a delete, in the order recorded. */
+    private static final Map<File, byte[]> pending = new LinkedHashMap<>();
+    /** Files written outside the journal that have to be on disk first. */
+    private static final Set<File> unsynced = new LinkedHashSet<>();
+    /** Branch file -> the commit id it must still hold, or null if it must
+     *  not exist, for the recorded changes to apply. */
+    private static final Map<File, String> expected = new LinkedHashMap<>();
+
+    /** Return true if writes and deletes of FILE go through the journal. */
+    static boolean covers(File file) {
+        File dir = file.getParentFile();
+        return file.equals(join(GITLET_DIR, HEADNAME)) || file.equals(STAGING_FILE)
+                || file.equals(SHALLOW_FILE) || file.equals(PROMISED_FILE)
+                || BRANCH_FOLDER.equals(dir) || REMOTE_FOLDER.equals(dir);
+    }
+
+    /** Record that FILE is to be replaced by DATA. */
+    static void write(File file, byte[] data) {
+        pending.remove(file);
+        pending.put(file, data);
+    }
+
+    /** Record that FILE is to be deleted. */
+    static void delete(File file) {
+        pending.remove(file);
+        pending.put(file, null);
+    }
+
+    /** Record that the change to the branch file FILE only applies if FILE
+     *  still holds OLDID when the command ends, or does not exist if OLDID
+     *  is null.  Only the first expectation for a file counts. */
+    static void expect(File file, String oldID) {
+        expected.putIfAbsent(file, oldID);
+    }
+
+    /** Return true if a change to FILE is recorded. */
+    static boolean isPending(File file) {
+        return pending.containsKey(file);
+    }
+
+    /** Return the recorded contents of FILE, or null if it is to be deleted. */
+    static byte[] read(File file) {
+        return pending.get(file);
+    }
+
+    /** Return the plain file NAMES of DIR, sorted, as they will be once the
+     *  recorded changes are applied. */
+    static List<String> list(File dir, List<String> names) {
+        TreeSet<String> result = null;
+        for (Map.Entry<File, byte[]> change : pending.entrySet()) {
+            if (!dir.equals(change.getKey().getParentFile())) {
+                continue;
+            }
+            if (result == null) {
+                result = new TreeSet<>(names);
+            }
+            if (change.getValue() == null) {
+                result.remove(change.getKey().getName());
+            } else {
+                result.add(change.getKey().getName());
+            }
+        }
+        return result == null ? names : new ArrayList<>(result);
+    }
+
+    /** Make sure FILE, written directly, is on disk before the commit point. */
+    static void syncBeforeCommit(File file) {
+        unsynced.add(file);
+    }
+
+    /** Finish the journal a crashed command left behind, if any. */
+    public static void recover() {
+        File journalFile = join(GITLET_DIR, "journal");
+        join(GITLET_DIR, "journal.tmp").delete();
+        if (!journalFile.isFile()) {
+            return;
+        }
+        // A reader that finds a journal has to write after all
+        RepositoryLock.upgrade();
+        if (!journalFile.isFile()) {
+            return;
+        }
+        Map<File, byte[]> changes = decode(readContentsOrNull(journalFile));
+        if (changes != null) {
+            apply(changes);
+        }
+        journalFile.delete();
+    }
+
+    /** Make the recorded changes take effect, durably. */
+    public static void commit() {
+        if (pending.isEmpty()) {
+            if (!unsynced.isEmpty() && GITLET_DIR.isDirectory()) {
+                sync(unsynced);
+            }
+            unsynced.clear();
+            expected.clear();
+            return;
+        }
+        checkExpected();
+        Map<File, byte[]> changes = new LinkedHashMap<>(pending);
+        changes.put(join(GITLET_DIR, "generation"),
+                Long.toString(generation() + 1).getBytes(StandardCharsets.UTF_8));
+        pending.clear();
+        expected.clear();
+        sync(unsynced);
+        unsynced.clear();
+
+        File tmp = join(GITLET_DIR, "journal.tmp");
+        File journalFile = join(GITLET_DIR, "journal");
+        writeSynced(tmp, encode(changes));
+        rename(tmp, journalFile);
+        syncDirectory(GITLET_DIR);
+
+        apply(changes);
+        journalFile.delete();
+    }
+
+    /** Return the number of journals committed in this repository. */
+    static long generation() {
+        byte[] data = readContentsOrNull(join(GITLET_DIR, "generation"));
+        if (data == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(new String(data, StandardCharsets.UTF_8));
+        } catch (NumberFormatException excp) {
+            return 0;
+        }
+    }
+
+    /** Forget the recorded changes. */
+    public static void abort() {
+        pending.clear();
+        unsynced.clear();
+        expected.clear();
+    }
+
+    /** Fail, discarding the recorded changes, unless every branch expected
+     *  to hold a commit id still does. */
+    private static void checkExpected() {
+        for (Map.Entry<File, String> expectation : expected.entrySet()) {
+            File file = expectation.getKey();
+            // What is on disk, not what this command recorded
+            String actualID = RefTable.open(GITLET_DIR).get(file.getName());
+            if (!Objects.equals(actualID, expectation.getValue())) {
+                abort();
+                throw error("Branch %s was changed by another command; nothing was done.",
+                        file.getName());
+            }
+        }
+    }
+
+    private static void apply(Map<File, byte[]> changes) {
+        Set<File> touched = new LinkedHashSet<>();
+        Map<String, String> branches = new LinkedHashMap<>();
+        for (Map.Entry<File, byte[]> change : changes.entrySet()) {
+            File file = change.getKey();
+            if (BRANCH_FOLDER.equals(file.getParentFile())) {
+                byte[] data = change.getValue();
+                branches.put(file.getName(), data == null ? null : Pointer.decode(data).getCommitID());
+                continue;
+            }
+            if (change.getValue() == null) {
+                file.delete();
+                touched.add(file.getParentFile());
+                continue;
+            }
+            File tmp = new File(file.getPath() + ".tmp");
+            file.getParentFile().mkdirs();
+            writeUnsynced(tmp, change.getValue());
+            rename(tmp, file);
+            touched.add(file);
+        }
+        if (!branches.isEmpty()) {
+            refs().update(branches);
+            touched.add(join(GITLET_DIR, "refs"));
+        }
+        sync(touched);
+    }
+
+    private static byte[] encode(Map<File, byte[]> changes) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(changes.size());
+            for (Map.Entry<File, byte[]> change : changes.entrySet()) {
+                byte[] data = change.getValue();
+                out.writeByte(data == null ? DELETE : WRITE);
+                byte[] path = GITLET_DIR.toPath().relativize(change.getKey().toPath())
+                        .toString().getBytes(StandardCharsets.UTF_8);
+                if (path.length > 0xffff) {
+                    throw new IllegalArgumentException("Path is too long.");
+                }
+                out.writeShort(path.length);
+                out.write(path);
+                out.writeInt(data == null ? 0 : data.length);
+                if (data != null) {
+                    out.write(data);
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the changes in a journal, or null if it is torn or damaged. */
+    private static Map<File, byte[]> decode(byte[] journal) {
+        if (journal == null || journal.length < 8) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(journal, 0, journal.length - 8);
+        ByteBuffer in = ByteBuffer.wrap(journal);
+        if (in.getLong(journal.length - 8) != crc.getValue()) {
+            return null;
+        }
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                return null;
+            }
+            Map<File, byte[]> changes = new LinkedHashMap<>();
+            for (int n = in.getInt(); n > 0; n -= 1) {
+                byte op = in.get();
+                byte[] path = new byte[in.getShort() & 0xffff];
+                in.get(path);
+                byte[] data = new byte[in.getInt()];
+                in.get(data);
+                File file = join(GITLET_DIR, new String(path, StandardCharsets.UTF_8));
+                changes.put(file, op == DELETE ? null : data);
+            }
+            return changes;
+        } catch (BufferUnderflowException | IllegalArgumentException excp) {
+            return null;
+        }
+    }
+
+    private static void sync(Set<File> files) {
+        Set<File> dirs = new LinkedHashSet<>();
+        for (File file : files) {
+            if (file.isDirectory()) {
+                dirs.add(file);
+                continue;
+            }
+            if (file.isFile()) {
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+            dirs.add(file.getParentFile());
+        }
+        // New names only last once the directories holding them are synced
+        for (File dir : dirs) {
+            syncDirectory(dir);
+        }
+    }
+
+    static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            // Not every platform can open or sync a directory
+        }
+    }
+
+    private static void writeSynced(File file, byte[] data) {
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            out.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static void writeUnsynced(File file, byte[] data) {
+        try {
+            Files.write(file.toPath(), data);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static void rename(File from, File to) {
+        try {
+            Files.move(from.toPath(), to.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static byte[] readContentsOrNull(File file) {
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+}
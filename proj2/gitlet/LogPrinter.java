@@ -0,0 +1,208 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** Prints log and global-log.
+ *
+ *  log walks the first parents of the head through the commit graph one
+ *  commit at a time and reads only the summaries it prints from the
+ *  message index, so "log -n 10" costs ten commits however long the
+ *  history is.  Its options are
+ *
+ *    -n N            print at most N commits
+ *    --skip N        leave out the first N commits, for paging with -n
+ *    --since DATE    stop at the first commit older than DATE, given as
+ *                    yyyy-MM-dd or yyyy-MM-dd HH:mm:ss in local time
+ *    --first-parent  follow first parents only, which log always does
+ *    -- FILE         print only the commits that changed FILE against
+ *                    their first parent, or any file below FILE if it is
+ *                    a directory
+ *
+ *  Skipped and too old commits are decided from the graph alone, and so
+ *  are most of the commits that did not change FILE: only those whose
+ *  changed-path Bloom filter in the graph may hold FILE have their trees
+ *  read.  All the output goes through one buffered writer.
+ *  @author Yun Zhu
+ */
+public class LogPrinter {
+    private static final String DATE_FORMAT = "E MMM dd HH:mm:ss yyyy Z";
+    private static final String[] SINCE_FORMATS = {"yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd"};
+
+    private int limit = Integer.MAX_VALUE;
+    private int skip = 0;
+    private long since = Long.MIN_VALUE;
+    private String path;
+
+    private final BufferedWriter out;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+
+    private LogPrinter() {
+        // Not closed, which would close System.out
+        out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    /** Return a printer for log with the options in ARGS, which start with
+     *  the command itself. */
+    public static LogPrinter parse(String[] args) {
+        LogPrinter printer = new LogPrinter();
+        for (int i = 1; i < args.length; i += 1) {
+            switch (args[i]) {
+                case "-n":
+                    printer.limit = parseCount(args, i += 1);
+                    break;
+                case "--skip":
+                    printer.skip = parseCount(args, i += 1);
+                    break;
+                case "--since":
+                    printer.since = parseDate(args, i += 1);
+                    break;
+                case "--first-parent":
+                    break;
+                case "--":
+                    // The file is the last operand
+                    if (i != args.length - 2) {
+                        printAndExit("Incorrect operands.");
+                    }
+                    // A directory may be given as DIR/, but its filter key has no slash
+                    printer.path = args[i += 1].replaceAll("/+$", "");
+                    if (printer.path.isEmpty()) {
+                        printAndExit("Incorrect operands.");
+                    }
+                    break;
+                default:
+                    printAndExit("Incorrect operands.");
+            }
+        }
+        return printer;
+    }
+
+    /** Print the log of the commit HEADID. */
+    public void log(String headID) {
+        CommitGraph graph = commitGraph();
+        int skipped = 0;
+        int printed = 0;
+        int walked = 0;
+        int filtered = 0;
+        try (MessageIndex.Cursor cursor = messageIndex().cursor()) {
+            for (String id = headID; id != null && printed < limit; id = graph.getFirstParentID(id)) {
+                if (graph.getTime(id) < since) {
+                    break;
+                }
+                walked += 1;
+                if (path != null && !graph.mightChange(id, path)) {
+                    filtered += 1;
+                    continue;
+                }
+                if (path != null && !changesPath(graph, id)) {
+                    continue;
+                }
+                if (skipped < skip) {
+                    skipped += 1;
+                    continue;
+                }
+                MessageIndex.Record record = cursor.get(id);
+                if (record != null) {
+                    write(id, record.getParentIDs(), record.getDate(), record.getMessage());
+                } else {
+                    Commit commit = readCommit(id);
+                    write(id, commit.getParentIDs(), commit.getDate(), commit.getMessage());
+                }
+                printed += 1;
+            }
+        }
+        flush();
+        if (path != null) {
+            Stats.report("log: %d commits walked, %d ruled out by their filters, %d printed",
+                    walked, filtered, printed);
+        }
+    }
+
+    /** Return true if the commit ID changed PATH, or anything below it,
+     *  against its first parent. */
+    private boolean changesPath(CommitGraph graph, String id) {
+        String parentID = graph.getFirstParentID(id);
+        String entryID = readCommit(id).getTree().getFileOrDirectory(objects(), path);
+        String parentEntryID = parentID == null ? null
+                : readCommit(parentID).getTree().getFileOrDirectory(objects(), path);
+        return !Objects.equals(entryID, parentEntryID);
+    }
+
+    /** Print every commit, in the order they were made. */
+    public static void globalLog() {
+        LogPrinter printer = new LogPrinter();
+        messageIndex().forEach(record -> printer.write(record.getCommitID(),
+                record.getParentIDs(), record.getDate(), record.getMessage()));
+        printer.flush();
+    }
+
+    private void write(String commitID, List<String> parentIDs, Date date, String message) {
+        try {
+            out.write("===");
+            out.newLine();
+            out.write("commit ");
+            out.write(commitID);
+            out.newLine();
+            if (parentIDs.size() == 2) {
+                out.write("Merge: ");
+                out.write(parentIDs.get(0), 0, 7);
+                out.write(' ');
+                out.write(parentIDs.get(1), 0, 7);
+                out.newLine();
+            }
+            out.write("Date: ");
+            out.write(dateFormat.format(date));
+            out.newLine();
+            out.write(message);
+            out.newLine();
+            out.newLine();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private void flush() {
+        try {
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static int parseCount(String[] args, int i) {
+        if (i >= args.length || !args[i].matches("\\d{1,9}")) {
+            printAndExit("Incorrect operands.");
+        }
+        return Integer.parseInt(args[i]);
+    }
+
+    private static long parseDate(String[] args, int i) {
+        if (i >= args.length) {
+            printAndExit("Incorrect operands.");
+        }
+        for (String format : SINCE_FORMATS) {
+            SimpleDateFormat dateFormat = new SimpleDateFormat(format);
+            dateFormat.setLenient(false);
+            try {
+                Date date = dateFormat.parse(args[i]);
+                if (dateFormat.format(date).equals(args[i])) {
+                    return date.getTime();
+                }
+            } catch (ParseException excp) {
+                // Try the next format
+            }
+        }
+        printAndExit("Incorrect operands.");
+        return 0;
+    }
+}
@@ -0,0 +1,168 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import static gitlet.MyUtils.getDirID;
+import static gitlet.Utils.*;
+
+/** The original one-file-per-object layout: commits live in
+ *  .gitlet/commits/ID, blobs in .gitlet/blobs/XX/ID and trees in
+ *  .gitlet/trees/XX/ID.
+ *  @author Yun Zhu
+ */
+public class LooseObjectStore implements ObjectStore {
+    private File commitsFolder;
+    private File blobsFolder;
+    private File treesFolder;
+
+    public LooseObjectStore(File gitletDir) {
+        this.commitsFolder = join(gitletDir, "commits");
+        this.blobsFolder = join(gitletDir, "blobs");
+        this.treesFolder = join(gitletDir, "trees");
+    }
+
+    @Override
+    public boolean contains(String id) {
+        return locate(id) != null;
+    }
+
+    @Override
+    public byte[] get(String id) {
+        File file = locate(id);
+        if (file == null) {
+            return null;
+        }
+        return readContents(file);
+    }
+
+    @Override
+    public void put(String id, Type type, byte[] data) {
+        File file = fileOf(id, type);
+        if (file.exists()) {
+            return;
+        }
+        file.getParentFile().mkdirs();
+        // Written aside and renamed, so a crash never leaves a torn object
+        File tmp = join(file.getParentFile(), id + ".tmp");
+        writeContents(tmp, data);
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.syncBeforeCommit(file);
+    }
+
+    @Override
+    public void put(String id, Type type, File file) {
+        File target = fileOf(id, type);
+        if (target.exists()) {
+            unrestrictedDelete(file);
+            return;
+        }
+        target.getParentFile().mkdirs();
+        try {
+            Files.move(file.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException excp) {
+            moveAcrossFileSystems(file, target);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.syncBeforeCommit(target);
+    }
+
+    @Override
+    public ReadableByteChannel open(String id) {
+        File file = locate(id);
+        if (file == null) {
+            return null;
+        }
+        try {
+            return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    @Override
+    public List<String> ids(Type type) {
+        List<String> ids = new ArrayList<>();
+        if (type == Type.COMMIT) {
+            List<String> names = plainFilenamesIn(commitsFolder);
+            if (names != null) {
+                ids.addAll(names);
+            }
+            return ids;
+        }
+        File folder = type == Type.BLOB ? blobsFolder : treesFolder;
+        String[] dirIDs = folder.list();
+        if (dirIDs == null) {
+            return ids;
+        }
+        List<String> sortedDirIDs = new LinkedList<>(List.of(dirIDs));
+        sortedDirIDs.sort(null);
+        for (String dirID : sortedDirIDs) {
+            List<String> names = plainFilenamesIn(join(folder, dirID));
+            if (names != null) {
+                ids.addAll(names);
+            }
+        }
+        return ids;
+    }
+
+    /** Return the type of the loose object with ID, or null if there is none. */
+    public Type typeOf(String id) {
+        for (Type type : Type.values()) {
+            if (fileOf(id, type).isFile()) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /** Delete the loose object with ID, if it exists. */
+    public void delete(String id) {
+        File file = locate(id);
+        if (file != null) {
+            unrestrictedDelete(file);
+            // Drop the blob fan-out directory once it is empty
+            File dir = file.getParentFile();
+            if (!dir.equals(commitsFolder)) {
+                dir.delete();
+            }
+        }
+    }
+
+    private static void moveAcrossFileSystems(File file, File target) {
+        try {
+            Files.move(file.toPath(), target.toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private File locate(String id) {
+        Type type = typeOf(id);
+        return type == null ? null : fileOf(id, type);
+    }
+
+    private File fileOf(String id, Type type) {
+        if (type == Type.COMMIT) {
+            return join(commitsFolder, id);
+        }
+        if (type == Type.TREE) {
+            return join(treesFolder, getDirID(id), id);
+        }
+        return join(blobsFolder, getDirID(id), id);
+    }
+}
@@ -1,5 +1,6 @@
 package gitlet;
 
+import java.util.Arrays;
 import java.util.regex.*;
 import static gitlet.Utils.*;
 
@@ -9,9 +10,56 @@ import static gitlet.Utils.*;
 public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND1> <OPERAND2> ... 
+     *  [--stats] <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
+        try {
+            run(args);
+        } catch (CommandExit excp) {
+            System.exit(0);
+        } catch (GitletException excp) {
+            // run has discarded the command's changes already
+            System.out.println(excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Run the command in ARGS.  Also used by the daemon for every request. */
+    public static void run(String[] args) {
+        Stats.setEnabled(args.length > 0 && args[0].equals("--stats"));
+        if (Stats.isEnabled()) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        // The daemon takes the lock, and recovers, for each request it runs
+        // instead
+        boolean locked = MyUtils.validateInit() && args.length > 0 && !args[0].equals("daemon");
+        if (locked) {
+            RepositoryLock.acquire(RepositoryLock.isShared(args[0]));
+            Daemon.checkStamp();
+        }
+        try {
+            // Recovery replays and deletes the journal, so only under the lock
+            if (locked) {
+                Journal.recover();
+            }
+            dispatch(args);
+            Journal.commit();
+        } catch (CommandExit excp) {
+            Journal.commit();
+            throw excp;
+        } catch (RuntimeException | Error excp) {
+            Journal.abort();
+            throw excp;
+        } finally {
+            Repository.reportCacheStats();
+            if (locked) {
+                Daemon.saveStamp();
+                RepositoryLock.release();
+            }
+        }
+    }
+
+    private static void dispatch(String[] args) {
         if (args.length == 0) {
             printAndExit("Please enter a command.");
         }
@@ -35,16 +83,23 @@ public class Main {
                 Repository.rm(args[1]);
                 break;
             case "log":
-                validateInitAndOperands("log", args, 1);
-                Repository.log();
+                // log [-n N] [--skip N] [--since DATE] [--first-parent] [-- FILE]
+                validateInitAndOperands("log", args, args.length);
+                Repository.log(args);
                 break;
             case "global-log":
                 validateInitAndOperands("global-log", args, 1);
                 Repository.globalLog();
                 break;
             case "find":
-                validateInitAndOperands("global-log", args, 2);
-                Repository.find(args[1]);
+                // find [message], find --prefix [message] or find --substring [message]
+                if (args.length == 3) {
+                    validateInitAndOperands("find", args, 3);
+                    Repository.find(args[1], args[2]);
+                } else {
+                    validateInitAndOperands("global-log", args, 2);
+                    Repository.find(args[1]);
+                }
                 break;
             case "status":
                 validateInitAndOperands("status", args, 1);
@@ -58,6 +113,13 @@ public class Main {
                 }
                 Repository.checkout(args);
                 break;
+            case "diff":
+                if (args.length > 3) {
+                    printAndExit("Incorrect operands.");
+                }
+                validateInitAndOperands("diff", args, args.length);
+                Repository.diff(args);
+                break;
             case "branch":
                 validateInitAndOperands("branch", args, 2);
                 Repository.branch(args[1]);
@@ -87,18 +149,58 @@ public class Main {
                 Repository.push(args[1], args[2]);
                 break;
             case "fetch":
-                validateInitAndOperands("fetch", args, 3);
-                Repository.fetch(args[1], args[2]);
+                // fetch [--depth N] [--filter=blob:none] [remote name] [remote branch name]
+                fetch(args);
                 break;
             case "pull":
                 validateInitAndOperands("pull", args, 3);
                 Repository.pull(args[1], args[2]);
                 break;
+            case "repack":
+                validateInitAndOperands("repack", args, 1);
+                Repository.repack();
+                break;
+            case "gc":
+                validateInitAndOperands("gc", args, 1);
+                GarbageCollector.collect();
+                break;
+            case "daemon":
+                validateInitAndOperands("daemon", args, 1);
+                Daemon.serve();
+                break;
+            case "serve-remote":
+                // Started by push and fetch in another repository, see Transfer
+                validateInitAndOperands("serve-remote", args, 3);
+                if (!args[1].matches("[1-9]\\d{0,4}") || Integer.parseInt(args[1]) > 0xffff) {
+                    printAndExit("Incorrect operands.");
+                }
+                Transfer.serve(Integer.parseInt(args[1]), args[2]);
+                break;
             default:
                 printAndExit("No command with that name exists.");
         }
     }
 
+    private static void fetch(String[] args) {
+        int depth = 0;
+        boolean withBlobs = true;
+        int i = 1;
+        for (; i < args.length && args[i].startsWith("--"); i += 1) {
+            if (args[i].equals("--depth") && i + 1 < args.length && args[i + 1].matches("[1-9]\\d{0,8}")) {
+                depth = Integer.parseInt(args[i += 1]);
+            } else if (args[i].equals("--filter=blob:none")) {
+                withBlobs = false;
+            } else {
+                printAndExit("Incorrect operands.");
+            }
+        }
+        String[] operands = new String[args.length - i + 1];
+        operands[0] = args[0];
+        System.arraycopy(args, i, operands, 1, args.length - i);
+        validateInitAndOperands("fetch", operands, 3);
+        Repository.fetch(operands[1], operands[2], depth, withBlobs);
+    }
+
     public static void validateInitAndOperands(String cmd, String[] args, int n) {
         if (!MyUtils.validateInit()) {
             printAndExit("Not in an initialized Gitlet directory.");
@@ -127,7 +229,12 @@ public class Main {
                 matchFileName(args[1]);
                 break;
             case "find":
-                matchMessage(args[1]);
+                if (args.length == 3) {
+                    matchSearchMode(args[1]);
+                    matchMessage(args[2]);
+                } else {
+                    matchMessage(args[1]);
+                }
                 break;
             case "checkout":
                 // checkout [branch name]
@@ -149,6 +256,12 @@ public class Main {
             case "reset":
                 matchCommitID(args[1]);
                 break;
+            case "diff":
+                // diff [commit id] [commit id]
+                for (int i = 1; i < args.length; i += 1) {
+                    matchCommitID(args[i]);
+                }
+                break;
             case "branch":
                 matchBranchName(args[1]);
                 break;
@@ -171,11 +284,18 @@ public class Main {
         }
     }
 
+    // A file name, or a path of directory names and a file name joined by '/'
     private static void matchFileName(String fileName) {
-        String fileNamePattern = "[^\\/\\\\\\:\\*\\\"\\>\\|\\?]+\\.[^\\/\\\\\\:\\*\\\"\\>\\|\\?]+";
+        String name = "[^\\/\\\\\\:\\*\\\"\\>\\|\\?]+";
+        String fileNamePattern = "(" + name + "/)*(" + name + ")?\\." + name;
         if (!Pattern.matches(fileNamePattern, fileName)) {
             printAndExit("Incorrect operands.");
         }
+        for (String part : fileName.split("/")) {
+            if (part.equals(".") || part.equals("..") || part.equals(".gitlet")) {
+                printAndExit("Incorrect operands.");
+            }
+        }
     }
 
     private static void matchMessage(String message) {
@@ -185,6 +305,12 @@ public class Main {
         }
     }
 
+    private static void matchSearchMode(String mode) {
+        if (!mode.equals("--prefix") && !mode.equals("--substring")) {
+            printAndExit("Incorrect operands.");
+        }
+    }
+
     private static void matchTwoLines(String TwoLines) {
         String twoLinesPattern = "--";
         if (!Pattern.matches(twoLinesPattern, TwoLines)) {
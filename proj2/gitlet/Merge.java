@@ -0,0 +1,113 @@
+package gitlet;
+
+import java.util.Arrays;
+import java.util.List;
+
+/** A three-way merge of the contents of one file, line by line, in the
+ *  style of diff3.  Both sides are diffed against the split point; the
+ *  base lines kept by both sides cut the three texts into chunks, and a
+ *  chunk changed on only one side (or the same way on both) takes that
+ *  change.  A chunk changed differently on both sides becomes a conflict
+ *  hunk, marked as a conflicting file always has been.
+ *
+ *  Texts containing NUL characters are not split into lines; if both
+ *  sides changed them, the whole files conflict.
+ *  @author Yun Zhu
+ */
+public class Merge {
+    private static final String HEAD_MARKER = "<<<<<<< HEAD\n";
+    private static final String SEPARATOR = "=======\n";
+    private static final String END_MARKER = ">>>>>>>\n";
+
+    private final String text;
+    private final boolean conflicted;
+
+    private Merge(String text, boolean conflicted) {
+        this.text = text;
+        this.conflicted = conflicted;
+    }
+
+    /** Merge the changes from BASE to HEAD with those from BASE to OTHER. */
+    public static Merge merge(String base, String head, String other) {
+        if (head.equals(other) || other.equals(base)) {
+            return new Merge(head, false);
+        }
+        if (head.equals(base)) {
+            return new Merge(other, false);
+        }
+        if (base.indexOf('\0') >= 0 || head.indexOf('\0') >= 0 || other.indexOf('\0') >= 0) {
+            return new Merge(HEAD_MARKER + head + SEPARATOR + other + END_MARKER, true);
+        }
+
+        List<String> baseLines = Diff.lines(base);
+        List<String> headLines = Diff.lines(head);
+        List<String> otherLines = Diff.lines(other);
+        int[][] ids = Diff.intern(List.of(baseLines, headLines, otherLines));
+        int[] toHead = Diff.match(ids[0], ids[1]);
+        int[] toOther = Diff.match(ids[0], ids[2]);
+
+        StringBuilder merged = new StringBuilder(Math.max(head.length(), other.length()));
+        boolean conflicted = false;
+        int b = 0;
+        int h = 0;
+        int o = 0;
+        while (true) {
+            // Lines both sides kept in place
+            while (b < ids[0].length && toHead[b] == h && toOther[b] == o) {
+                merged.append(baseLines.get(b));
+                b += 1;
+                h += 1;
+                o += 1;
+            }
+            // The chunk runs up to the next base line both sides kept
+            int bEnd = b;
+            while (bEnd < ids[0].length && (toHead[bEnd] < 0 || toOther[bEnd] < 0)) {
+                bEnd += 1;
+            }
+            int hEnd = bEnd < ids[0].length ? toHead[bEnd] : ids[1].length;
+            int oEnd = bEnd < ids[0].length ? toOther[bEnd] : ids[2].length;
+            if (b == bEnd && h == hEnd && o == oEnd) {
+                break;
+            }
+
+            boolean headChanged = !same(ids[0], b, bEnd, ids[1], h, hEnd);
+            boolean otherChanged = !same(ids[0], b, bEnd, ids[2], o, oEnd);
+            if (!otherChanged || (headChanged && same(ids[1], h, hEnd, ids[2], o, oEnd))) {
+                append(merged, headLines, h, hEnd);
+            } else if (!headChanged) {
+                append(merged, otherLines, o, oEnd);
+            } else {
+                merged.append(HEAD_MARKER);
+                append(merged, headLines, h, hEnd);
+                merged.append(SEPARATOR);
+                append(merged, otherLines, o, oEnd);
+                merged.append(END_MARKER);
+                conflicted = true;
+            }
+            b = bEnd;
+            h = hEnd;
+            o = oEnd;
+        }
+        return new Merge(merged.toString(), conflicted);
+    }
+
+    /** Return the merged contents, with conflict hunks marked. */
+    public String getText() {
+        return text;
+    }
+
+    /** Return true if some chunk was changed differently on both sides. */
+    public boolean isConflicted() {
+        return conflicted;
+    }
+
+    private static boolean same(int[] x, int xLo, int xHi, int[] y, int yLo, int yHi) {
+        return Arrays.equals(x, xLo, xHi, y, yLo, yHi);
+    }
+
+    private static void append(StringBuilder merged, List<String> lines, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            merged.append(lines.get(i));
+        }
+    }
+}
@@ -0,0 +1,673 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Utils.*;
+
+/** A persistent index of commit messages, kept in .gitlet/messages.
+ *
+ *  LOG is an append-only file holding a short summary of every commit
+ *  (id, time, parents and message) in the order the commits were added,
+ *  so global-log reads one file from start to end.  EXACT and TOKENS are
+ *  open-addressing hash tables on disk that map a 64-bit key to the
+ *  offsets of LOG records: EXACT is keyed by the hash of the whole
+ *  message, TOKENS by the hash of every word in it.  Each distinct key has
+ *  one slot, which heads a list of offsets in an append-only postings file.
+ *  A lookup probes a few slots and then checks the records the list points
+ *  to, since different keys may share a hash.  IDS is keyed by the commit
+ *  id, so log can read the summary of one commit without reading the
+ *  commit.  Indexing a record appends one posting and rewrites one slot per
+ *  key, so a commit costs the same however often its words occur; only the
+ *  occasional doubling of a table reads the whole of it.
+ *  @author Yun Zhu
+ */
+public class MessageIndex {
+    private static final int MAGIC = 0x474c4d4c; // "GLML"
+    private static final int VERSION = 1;
+    /** MAGIC, VERSION, COUNT and the offset of the end of the last record. */
+    private static final int HEADER_SIZE = 20;
+
+    /** The summary of one commit, as kept in LOG. */
+    public static class Record {
+        private String commitID;
+        private long time;
+        private List<String> parentIDs;
+        private String message;
+
+        public String getCommitID() {
+            return commitID;
+        }
+
+        public Date getDate() {
+            return new Date(time);
+        }
+
+        public List<String> getParentIDs() {
+            return parentIDs;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    private File logFile;
+    private Table exact;
+    private Table tokens;
+    private Table ids;
+    private int count;
+    private long end;
+
+    private MessageIndex(File gitletDir) {
+        File folder = join(gitletDir, "messages");
+        folder.mkdir();
+        this.logFile = join(folder, "log");
+        this.exact = new Table(join(folder, "exact"));
+        this.tokens = new Table(join(folder, "tokens"));
+        this.ids = new Table(join(folder, "ids"));
+    }
+
+    /** Open the message index of GITLETDIR, whose objects are in STORE.  A
+     *  repository without one gets one built from the commits in STORE. */
+    public static MessageIndex open(File gitletDir, ObjectStore store) {
+        MessageIndex index = new MessageIndex(gitletDir);
+        if (index.isComplete()) {
+            index.readHeader();
+            return index;
+        }
+        // Indexes written before IDS or the postings files existed are built again from LOG
+        if (index.logFile.isFile()) {
+            index.readHeader();
+            index.reindex();
+            return index;
+        }
+        index.create();
+        List<Commit> commits = new ArrayList<>();
+        for (String id : store.ids(ObjectStore.Type.COMMIT)) {
+            commits.add(Repository.readCommit(store, id));
+        }
+        commits.sort(Comparator.comparing(Commit::getDate));
+        index.add(commits);
+        return index;
+    }
+
+    /** Return true if GITLETDIR has a complete message index. */
+    public static boolean exists(File gitletDir) {
+        return new MessageIndex(gitletDir).isComplete();
+    }
+
+    /** Throw away the message index of GITLETDIR and build it again from STORE. */
+    public static MessageIndex rebuild(File gitletDir, ObjectStore store) {
+        MessageIndex index = new MessageIndex(gitletDir);
+        index.logFile.delete();
+        return open(gitletDir, store);
+    }
+
+    /** Return the number of commits in the index. */
+    public int size() {
+        return count;
+    }
+
+    /** Add the COMMITS that are not in the index yet, in order. */
+    public void add(Collection<Commit> commits) {
+        try (FileChannel log = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE);
+             Table.Writer exactOut = exact.writer();
+             Table.Writer tokensOut = tokens.writer();
+             Table.Writer idsOut = ids.writer()) {
+            for (Commit commit : commits) {
+                String message = commit.getMessage();
+                if (!matching(exactOut.get(keyOf(message)), r -> r.message.equals(message))
+                        .contains(commit.getCommitID())) {
+                    append(log, commit, exactOut, tokensOut, idsOut);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        sync();
+    }
+
+    /** Return the ids of the commits whose message is MESSAGE, sorted. */
+    public TreeSet<String> find(String message) {
+        return matching(exact.get(keyOf(message)), r -> r.message.equals(message));
+    }
+
+    /** Return the ids of the commits whose message starts with PREFIX, sorted. */
+    public TreeSet<String> findByPrefix(String prefix) {
+        return search(prefix, true, r -> r.message.startsWith(prefix));
+    }
+
+    /** Return the ids of the commits whose message contains TEXT, sorted. */
+    public TreeSet<String> findBySubstring(String text) {
+        return search(text, false, r -> r.message.contains(text));
+    }
+
+    /** Pass every record to ACTION, in the order the commits were added. */
+    public void forEach(Consumer<Record> action) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(logFile.toPath()), 1 << 16))) {
+            in.skipNBytes(HEADER_SIZE);
+            for (int i = 0; i < count; i += 1) {
+                action.accept(readRecord(in));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a reader of the records of single commits, to be closed after use. */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /** Reads the records of commits by id, keeping LOG and IDS open. */
+    public class Cursor implements AutoCloseable {
+        private final FileChannel log;
+        private final Table.Reader idTable;
+
+        private Cursor() {
+            try {
+                log = FileChannel.open(logFile.toPath(), StandardOpenOption.READ);
+                idTable = ids.reader();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Return the record of the commit with COMMITID, or null if it is
+         *  not in the index. */
+        public Record get(String commitID) {
+            try {
+                for (long offset : idTable.get(idKey(commitID))) {
+                    if (offset >= end) {
+                        continue;
+                    }
+                    log.position(offset);
+                    Record record = readRecord(new DataInputStream(
+                            new BufferedInputStream(Channels.newInputStream(log), 512)));
+                    if (record.commitID.equals(commitID)) {
+                        return record;
+                    }
+                }
+                return null;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                log.close();
+                idTable.close();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Search for QUERY, which is a prefix of the message if ANCHORED, using
+     *  the words of QUERY that must appear whole in a matching message.  A
+     *  query that is part of a single word falls back to reading LOG. */
+    private TreeSet<String> search(String query, boolean anchored, Predicate<Record> test) {
+        List<String> words = wholeWords(query, anchored);
+        if (words.isEmpty()) {
+            TreeSet<String> ids = new TreeSet<>();
+            forEach(r -> {
+                if (test.test(r)) {
+                    ids.add(r.commitID);
+                }
+            });
+            return ids;
+        }
+        Set<Long> offsets = null;
+        for (String word : words) {
+            Set<Long> posting = new HashSet<>(tokens.get(keyOf(word)));
+            if (offsets == null) {
+                offsets = posting;
+            } else {
+                offsets.retainAll(posting);
+            }
+        }
+        return matching(offsets, test);
+    }
+
+    private TreeSet<String> matching(Collection<Long> offsets, Predicate<Record> test) {
+        TreeSet<String> ids = new TreeSet<>();
+        if (offsets.isEmpty()) {
+            return ids;
+        }
+        try (FileChannel log = FileChannel.open(logFile.toPath(), StandardOpenOption.READ)) {
+            for (long offset : offsets) {
+                // Entries past END belong to a record whose append never finished
+                if (offset >= end) {
+                    continue;
+                }
+                log.position(offset);
+                Record record = readRecord(new DataInputStream(
+                        new BufferedInputStream(Channels.newInputStream(log))));
+                if (test.test(record)) {
+                    ids.add(record.commitID);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return ids;
+    }
+
+    private void append(FileChannel log, Commit commit, Table.Writer exactOut,
+                        Table.Writer tokensOut, Table.Writer idsOut) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(hexToBytes(commit.getCommitID()));
+        out.writeLong(commit.getDate().getTime());
+        out.writeByte(commit.getParentIDs().size());
+        for (String parentID : commit.getParentIDs()) {
+            out.write(hexToBytes(parentID));
+        }
+        byte[] message = commit.getMessage().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(message.length);
+        out.write(message);
+
+        long offset = end;
+        writeFully(log, ByteBuffer.wrap(bytes.toByteArray()), offset);
+        index(offset, commit.getCommitID(), commit.getMessage(), exactOut, tokensOut, idsOut);
+        // The header moves last, so a record is only counted once it is indexed
+        end = offset + bytes.size();
+        count += 1;
+        writeHeader(log);
+    }
+
+    private static void index(long offset, String commitID, String message, Table.Writer exactOut,
+                              Table.Writer tokensOut, Table.Writer idsOut) throws IOException {
+        exactOut.put(keyOf(message), offset);
+        idsOut.put(idKey(commitID), offset);
+        for (String word : words(message)) {
+            tokensOut.put(keyOf(word), offset);
+        }
+    }
+
+    private static Record readRecord(DataInputStream in) throws IOException {
+        Record record = new Record();
+        byte[] id = new byte[UID_LENGTH / 2];
+        in.readFully(id);
+        record.commitID = bytesToHex(id);
+        record.time = in.readLong();
+        int parents = in.readUnsignedByte();
+        record.parentIDs = new ArrayList<>(parents);
+        for (int i = 0; i < parents; i += 1) {
+            in.readFully(id);
+            record.parentIDs.add(bytesToHex(id));
+        }
+        byte[] message = new byte[in.readInt()];
+        in.readFully(message);
+        record.message = new String(message, StandardCharsets.UTF_8);
+        return record;
+    }
+
+    private void create() {
+        count = 0;
+        end = HEADER_SIZE;
+        exact.create();
+        tokens.create();
+        ids.create();
+        try (FileChannel log = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeHeader(log);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private boolean isComplete() {
+        return logFile.isFile() && exact.isCurrent() && tokens.isCurrent() && ids.isCurrent();
+    }
+
+    private void sync() {
+        Journal.syncBeforeCommit(logFile);
+        for (Table table : List.of(exact, tokens, ids)) {
+            Journal.syncBeforeCommit(table.file);
+            Journal.syncBeforeCommit(table.postings);
+        }
+    }
+
+    private void readHeader() {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(logFile.toPath()))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw error("Corrupted message index.");
+            }
+            count = in.readInt();
+            end = in.readLong();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Fill the tables from the records in LOG. */
+    private void reindex() {
+        exact.create();
+        tokens.create();
+        ids.create();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(logFile.toPath()), 1 << 16));
+             Table.Writer exactOut = exact.writer();
+             Table.Writer tokensOut = tokens.writer();
+             Table.Writer idsOut = ids.writer()) {
+            in.skipNBytes(HEADER_SIZE);
+            long offset = HEADER_SIZE;
+            for (int i = 0; i < count; i += 1) {
+                Record record = readRecord(in);
+                index(offset, record.commitID, record.message, exactOut, tokensOut, idsOut);
+                offset += UID_LENGTH / 2 + 8 + 1 + UID_LENGTH / 2 * record.parentIDs.size()
+                        + 4 + record.message.getBytes(StandardCharsets.UTF_8).length;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        sync();
+    }
+
+    private void writeHeader(FileChannel log) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(count).putLong(end).flip();
+        writeFully(log, header, 0);
+    }
+
+    /** Return the distinct lower-case words of TEXT. */
+    private static Set<String> words(String text) {
+        Set<String> words = new LinkedHashSet<>();
+        for (String word : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    /** Return the words of QUERY that any message containing it (or starting
+     *  with it, if ANCHORED) has as whole words.  The first and last words
+     *  may be cut off, unless QUERY starts or ends with a separator or the
+     *  first word is anchored at the start of the message. */
+    private static List<String> wholeWords(String query, boolean anchored) {
+        List<String> words = new ArrayList<>(words(query));
+        if (words.isEmpty()) {
+            return words;
+        }
+        if (!anchored && isWordChar(query.charAt(0))) {
+            words.remove(0);
+        }
+        if (!words.isEmpty() && isWordChar(query.charAt(query.length() - 1))) {
+            words.remove(words.size() - 1);
+        }
+        return words;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c);
+    }
+
+    private static long keyOf(String text) {
+        return Long.parseUnsignedLong(sha1(text).substring(0, 16), 16);
+    }
+
+    /** Commit ids are already hashes, so their first 64 bits are the key. */
+    private static long idKey(String commitID) {
+        return Long.parseUnsignedLong(commitID.substring(0, 16), 16);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position)
+            throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    /** An open-addressing hash table on disk from 64-bit keys to lists of
+     *  record offsets.  The table file is a header (MAGIC, VERSION, CAPACITY,
+     *  SIZE) and CAPACITY slots of KEY(8) and HEAD(8), one for every distinct
+     *  key, where 0 marks an empty slot.  HEAD is one more than the position
+     *  in the append-only postings file of the newest entry under KEY, and an
+     *  entry is OFFSET(8) and the HEAD of the entry before it.  The table is
+     *  mapped, so probing it reads no file, and doubles once it is half full.
+     *  The posting is appended before the slot points at it, so a command that
+     *  dies in between leaves an entry nothing refers to. */
+    private static class Table {
+        private static final int TABLE_MAGIC = 0x474c4854; // "GLHT"
+        private static final int TABLE_VERSION = 2;
+        private static final int TABLE_HEADER_SIZE = 16;
+        private static final int SLOT_SIZE = 16;
+        private static final int ENTRY_SIZE = 16;
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private File file;
+        private File postings;
+
+        Table(File file) {
+            this.file = file;
+            this.postings = join(file.getParentFile(), file.getName() + ".postings");
+        }
+
+        void create() {
+            try {
+                Files.write(postings.toPath(), new byte[0]);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            writeTable(file, new long[INITIAL_CAPACITY * 2], 0);
+        }
+
+        /** Return true if the table and its postings are in the current format. */
+        boolean isCurrent() {
+            if (!file.isFile() || !postings.isFile()) {
+                return false;
+            }
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(file.toPath()))) {
+                return in.readInt() == TABLE_MAGIC && in.readInt() == TABLE_VERSION;
+            } catch (IOException excp) {
+                return false;
+            }
+        }
+
+        /** Return the offsets stored under KEY. */
+        List<Long> get(long key) {
+            try (Reader reader = reader()) {
+                return reader.get(key);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        Reader reader() throws IOException {
+            return new Reader(false);
+        }
+
+        Writer writer() throws IOException {
+            return new Writer();
+        }
+
+        /** The table mapped in memory with its postings open, to be closed after use. */
+        class Reader implements AutoCloseable {
+            protected FileChannel table;
+            protected FileChannel postingsChannel;
+            protected MappedByteBuffer slots;
+            protected int capacity;
+            protected int size;
+
+            private final boolean writable;
+
+            private Reader(boolean writable) throws IOException {
+                this.writable = writable;
+                postingsChannel = writable
+                        ? FileChannel.open(postings.toPath(), StandardOpenOption.READ,
+                                StandardOpenOption.WRITE)
+                        : FileChannel.open(postings.toPath(), StandardOpenOption.READ);
+                map();
+            }
+
+            protected void map() throws IOException {
+                if (writable) {
+                    table = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE);
+                    slots = table.map(FileChannel.MapMode.READ_WRITE, 0, table.size());
+                } else {
+                    table = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                    slots = table.map(FileChannel.MapMode.READ_ONLY, 0, table.size());
+                }
+                if (slots.getInt(0) != TABLE_MAGIC || slots.getInt(4) != TABLE_VERSION) {
+                    throw error("Corrupted message index.");
+                }
+                capacity = slots.getInt(8);
+                size = slots.getInt(12);
+            }
+
+            /** Return the offsets stored under KEY, newest first. */
+            List<Long> get(long key) throws IOException {
+                List<Long> offsets = new ArrayList<>();
+                ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+                for (long head = slots.getLong(find(key) + 8); head != 0; head = entry.getLong(8)) {
+                    entry.clear();
+                    while (entry.hasRemaining()) {
+                        if (postingsChannel.read(entry, head - 1 + entry.position()) < 0) {
+                            throw error("Corrupted message index.");
+                        }
+                    }
+                    offsets.add(entry.getLong(0));
+                }
+                return offsets;
+            }
+
+            /** Return the position of the slot of KEY, or of the empty slot
+             *  that ends its probe. */
+            protected int find(long key) {
+                for (int slot = slotOf(key, capacity); ; slot = (slot + 1) & (capacity - 1)) {
+                    int position = slotPosition(slot);
+                    if (slots.getLong(position + 8) == 0 || slots.getLong(position) == key) {
+                        return position;
+                    }
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                table.close();
+                postingsChannel.close();
+            }
+        }
+
+        /** A Reader that may also store offsets. */
+        class Writer extends Reader {
+            private long postingsEnd;
+
+            private Writer() throws IOException {
+                super(true);
+                postingsEnd = postingsChannel.size();
+            }
+
+            @Override
+            public void close() throws IOException {
+                slots.force();
+                super.close();
+            }
+
+            /** Store OFFSET under KEY. */
+            void put(long key, long offset) throws IOException {
+                int position = find(key);
+                long head = slots.getLong(position + 8);
+                if (head == 0 && (size + 1) * 2 > capacity) {
+                    grow();
+                    put(key, offset);
+                    return;
+                }
+                ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+                entry.putLong(offset).putLong(head).flip();
+                writeFully(postingsChannel, entry, postingsEnd);
+                slots.putLong(position, key);
+                slots.putLong(position + 8, postingsEnd + 1);
+                postingsEnd += ENTRY_SIZE;
+                if (head == 0) {
+                    size += 1;
+                    slots.putInt(12, size);
+                }
+            }
+
+            /** Rewrite the table with twice the capacity and map it again. */
+            private void grow() throws IOException {
+                int newCapacity = capacity * 2;
+                long[] newSlots = new long[newCapacity * 2];
+                for (int i = 0; i < capacity; i += 1) {
+                    long key = slots.getLong(slotPosition(i));
+                    long head = slots.getLong(slotPosition(i) + 8);
+                    if (head == 0) {
+                        continue;
+                    }
+                    int slot = slotOf(key, newCapacity);
+                    while (newSlots[slot * 2 + 1] != 0) {
+                        slot = (slot + 1) & (newCapacity - 1);
+                    }
+                    newSlots[slot * 2] = key;
+                    newSlots[slot * 2 + 1] = head;
+                }
+                table.close();
+                writeTable(file, newSlots, size);
+                map();
+            }
+        }
+
+        private static void writeTable(File file, long[] slots, int size) {
+            File tmp = join(file.getParentFile(), file.getName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tmp.toPath()), 1 << 16))) {
+                out.writeInt(TABLE_MAGIC);
+                out.writeInt(TABLE_VERSION);
+                out.writeInt(slots.length / 2);
+                out.writeInt(size);
+                for (long slot : slots) {
+                    out.writeLong(slot);
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        private static int slotOf(long key, int capacity) {
+            return (int) (key ^ (key >>> 32)) & (capacity - 1);
+        }
+
+        private static int slotPosition(int slot) {
+            return TABLE_HEADER_SIZE + slot * SLOT_SIZE;
+        }
+    }
+}
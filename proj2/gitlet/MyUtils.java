@@ -1,36 +1,24 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static gitlet.Repository.GITLET_DIR;
-import static gitlet.Repository.getCurrentCommit;
 import static gitlet.Utils.*;
 
 public class MyUtils {
-    public static void saveDirAndObjInBlobs(Serializable serObj, File folder, String id) {
-        Commit parentCommit = getCurrentCommit();
-        List<String> parentBlobIDs = parentCommit.getBlobIDs();
-        if (parentBlobIDs.size() != 0) {
-            for (String parentBlobID : parentBlobIDs) {
-                if (id.equals(parentBlobID)) {
-                    return;
-                }
-            }
-        }
-
-        List<String> dirIDList = Utils.plainFilenamesIn(folder);
-        String dirID = getDirID(id);
-        if (!dirIDList.contains(dirID)) {
-            saveDir(folder, dirID);
-        }
-
-        List<String> idList = Utils.plainFilenamesIn(join(folder, dirID));
-        if (idList != null && !idList.contains(id)) {
-            saveObj(folder, dirID, id, serObj);
-        }
-    }
+    private static final int MAX_THREADS = 8;
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.ISO_8859_1);
 
     public static String getDirID(String id) {
         return id.substring(0, 2);
@@ -60,9 +48,89 @@ public class MyUtils {
         writeContents(file, content);
     }
 
-    // Get file id through filename and file content
-    public static String getFileID(File file) {
-        return sha1(serialize(file.getName()), serialize(readContentsAsString(file)));
+    // Get file id through file path and the id of the blob holding its content
+    public static String getFileID(String fileName, String blobID) {
+        return sha1(fileName, blobID);
+    }
+
+    // Get the size and modification time of a file, or null if it does not exist
+    public static BasicFileAttributes stat(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    // Convert a hexadecimal id to its raw bytes
+    public static byte[] hexToBytes(String id) {
+        byte[] bytes = new byte[id.length() / 2];
+        for (int i = 0; i < bytes.length; i += 1) {
+            bytes[i] = (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    // Convert raw bytes to a hexadecimal id
+    public static String bytesToHex(byte[] bytes) {
+        return bytesToHex(bytes, 0, bytes.length);
+    }
+
+    // Convert LENGTH raw bytes of BYTES from OFFSET on to a hexadecimal id
+    public static String bytesToHex(byte[] bytes, int offset, int length) {
+        byte[] id = new byte[length * 2];
+        for (int i = 0; i < length; i += 1) {
+            int b = bytes[offset + i];
+            id[2 * i] = HEX_DIGITS[(b >> 4) & 0xf];
+            id[2 * i + 1] = HEX_DIGITS[b & 0xf];
+        }
+        return new String(id, StandardCharsets.ISO_8859_1);
+    }
+
+    // Run every task, on a bounded pool of threads unless there are fewer than minParallel
+    public static void runInParallel(List<Callable<Void>> tasks, int minParallel) {
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), MAX_THREADS);
+        if (tasks.size() < minParallel || threads < 2) {
+            runInline(tasks);
+        } else {
+            runInPool(tasks, threads);
+        }
+    }
+
+    private static void runInline(List<Callable<Void>> tasks) {
+        try {
+            for (Callable<Void> task : tasks) {
+                task.call();
+            }
+        } catch (RuntimeException excp) {
+            throw excp;
+        } catch (Exception excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static void runInPool(List<Callable<Void>> tasks, int threads) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (Future<Void> result : pool.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (ExecutionException excp) {
+            // Rethrow what the task threw, so a command exit stays one
+            Throwable cause = excp.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalArgumentException(cause.getMessage(), cause);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
     }
 
     public static boolean validateInit() {
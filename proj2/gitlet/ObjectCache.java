@@ -0,0 +1,87 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A bounded least-recently-used cache of deserialized objects.  Every
+ *  entry carries a weight (the size of the bytes it was read from) and the
+ *  least recently used entries are evicted once the total weight passes
+ *  the limit.  The cached values must not be changed by their users.
+ *  @author Yun Zhu
+ */
+public class ObjectCache<K, V> {
+    /** A cached value with its weight. */
+    private static class Entry<V> {
+        private V value;
+        private long weight;
+
+        Entry(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private String name;
+    private long maxWeight;
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** A cache called NAME in reports, holding at most MAXWEIGHT in total. */
+    public ObjectCache(String name, long maxWeight) {
+        this.name = name;
+        this.maxWeight = maxWeight;
+    }
+
+    /** Return the value cached under KEY, or null if there is none. */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return entry.value;
+    }
+
+    /** Cache VALUE under KEY with the given WEIGHT, evicting the least
+     *  recently used entries to make room.  Values heavier than the whole
+     *  cache are not kept. */
+    public synchronized void put(K key, V value, long weight) {
+        remove(key);
+        if (weight > maxWeight) {
+            return;
+        }
+        entries.put(key, new Entry<>(value, weight));
+        this.weight += weight;
+        Iterator<Map.Entry<K, Entry<V>>> eldest = entries.entrySet().iterator();
+        while (this.weight > maxWeight) {
+            this.weight -= eldest.next().getValue().weight;
+            eldest.remove();
+            evictions += 1;
+        }
+    }
+
+    /** Forget the value cached under KEY, if any. */
+    public synchronized void remove(K key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry != null) {
+            weight -= entry.weight;
+        }
+    }
+
+    /** Forget every cached value. */
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    /** Return a one-line summary of the hits and misses of this cache. */
+    public synchronized String stats() {
+        return String.format("%s cache: %d hits, %d misses, %d evictions, %d entries, %d bytes",
+                name, hits, misses, evictions, entries.size(), weight);
+    }
+}
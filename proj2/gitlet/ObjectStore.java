@@ -0,0 +1,59 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
+import java.util.List;
+
+/** Storage for the content-addressed objects (commits, trees and blobs) of a
+ *  gitlet repository.  Every object is addressed by its 40-character
+ *  SHA-1 id and stored as an opaque byte array.
+ *  @author Yun Zhu
+ */
+public interface ObjectStore {
+    /** The kinds of objects kept in the store. */
+    enum Type {
+        COMMIT, BLOB, TREE
+    }
+
+    /** Return true if an object with ID is in the store. */
+    boolean contains(String id);
+
+    /** Return the bytes of the object with ID, or null if there is none. */
+    byte[] get(String id);
+
+    /** Store DATA as the object with ID and TYPE.  Storing an id that is
+     *  already present does nothing. */
+    void put(String id, Type type, byte[] data);
+
+    /** Store the contents of FILE as the object with ID and TYPE, moving
+     *  FILE into the store.  Storing an id that is already present only
+     *  deletes FILE. */
+    void put(String id, Type type, File file);
+
+    /** Return a channel over the bytes of the object with ID, or null if
+     *  there is none.  The caller closes it. */
+    default ReadableByteChannel open(String id) {
+        byte[] data = get(id);
+        if (data == null) {
+            return null;
+        }
+        return Channels.newChannel(new ByteArrayInputStream(data));
+    }
+
+    /** Return the ids of all objects of TYPE, in lexicographic order. */
+    List<String> ids(Type type);
+
+    /** Make sure the objects IDS are here before they are read, for a
+     *  store that may have to fetch some of them.  Ids of objects that are
+     *  neither here nor promised are passed over. */
+    default void prefetch(Collection<String> ids) {
+    }
+
+    /** Open the object store of the .gitlet directory GITLETDIR. */
+    static ObjectStore open(File gitletDir) {
+        return new PackObjectStore(gitletDir);
+    }
+}
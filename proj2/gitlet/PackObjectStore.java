@@ -0,0 +1,598 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Utils.*;
+
+/** An object store backed by one append-only pack file and a sorted offset
+ *  index, both read through memory-mapped buffers.  The pack is mapped in
+ *  windows of WINDOW_SIZE bytes, as one buffer cannot reach past 2 GB; an
+ *  object that crosses the end of a window is mapped on its own.  Objects that have not
+ *  been packed yet are read from (and new objects are written to) the loose
+ *  layout; repack() migrates them into the pack, and prune() and install()
+ *  rewrite the pack with only the objects that are still wanted.
+ *
+ *  The pack file (.gitlet/pack/objects.pack) is a header MAGIC VERSION
+ *  GENERATION followed by records of the form
+ *  ID(20) TYPE(1) LENGTH(4) DATA(LENGTH).
+ *  The index file (.gitlet/pack/objects.idx) is a header MAGIC VERSION
+ *  COUNT GENERATION and COUNT fixed-size entries
+ *  ID(20) TYPE(1) OFFSET(8) LENGTH(4)  sorted by ID, where OFFSET is the
+ *  position of DATA in the pack.  Version 1 indexes have no GENERATION.
+ *
+ *  prune() writes the new pack aside, which only needs the repository
+ *  locked shared, and install() then writes the new index aside as
+ *  objects.idx.tmp and replaces the pack and then the index, each with an
+ *  atomic rename, under a new generation.  Readers that have them mapped
+ *  keep reading the old files; a reader that maps an index and a pack of
+ *  different generations maps them again, and one that misses an object
+ *  after the index has changed on disk picks up the new index.  If the
+ *  pending index belongs to the pack, install() died between the two
+ *  renames, and the reader finishes it.
+ *  @author Yun Zhu
+ */
+public class PackObjectStore implements ObjectStore {
+    private static final int PACK_MAGIC = 0x474c504b; // "GLPK"
+    private static final int INDEX_MAGIC = 0x474c4958; // "GLIX"
+    private static final int VERSION = 1;
+    private static final int INDEX_VERSION = 2;
+    private static final int HEADER_SIZE = 12;
+    private static final int INDEX_HEADER_SIZE = 16;
+    private static final int MAX_MAP_ATTEMPTS = 50;
+    private static final int ID_SIZE = 20;
+    private static final int ENTRY_SIZE = ID_SIZE + 1 + 8 + 4;
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    private File packFile;
+    private File indexFile;
+    /** The index install() writes before it replaces the pack. */
+    private File pendingIndexFile;
+    private LooseObjectStore loose;
+    private MappedByteBuffer index;
+    /** The pack, kept open so objects that cross windows can be mapped. */
+    private FileChannel packChannel;
+    /** The pack mapped WINDOW_SIZE bytes at a time, or null if there is none. */
+    private MappedByteBuffer[] pack;
+    private int count;
+    private int generation;
+    private int indexHeaderSize;
+    /** Size and modification time of the index when it was mapped. */
+    private String indexStamp;
+
+    public PackObjectStore(File gitletDir) {
+        File packFolder = join(gitletDir, "pack");
+        this.packFile = join(packFolder, "objects.pack");
+        this.indexFile = join(packFolder, "objects.idx");
+        this.pendingIndexFile = join(packFolder, "objects.idx.tmp");
+        this.loose = new LooseObjectStore(gitletDir);
+        mapPack();
+    }
+
+    @Override
+    public boolean contains(String id) {
+        return find(id) >= 0 || loose.contains(id);
+    }
+
+    @Override
+    public byte[] get(String id) {
+        int i = find(id);
+        if (i < 0) {
+            byte[] data = loose.get(id);
+            if (data == null && refresh()) {
+                return get(id);
+            }
+            return data;
+        }
+        int entry = indexHeaderSize + i * ENTRY_SIZE;
+        long offset = index.getLong(entry + ID_SIZE + 1);
+        int length = index.getInt(entry + ID_SIZE + 1 + 8);
+        byte[] data = new byte[length];
+        packSlice(offset, length).get(data);
+        return data;
+    }
+
+    @Override
+    public void put(String id, Type type, byte[] data) {
+        if (find(id) >= 0) {
+            return;
+        }
+        loose.put(id, type, data);
+    }
+
+    @Override
+    public void put(String id, Type type, File file) {
+        if (find(id) >= 0) {
+            unrestrictedDelete(file);
+            return;
+        }
+        loose.put(id, type, file);
+    }
+
+    @Override
+    public ReadableByteChannel open(String id) {
+        int i = find(id);
+        if (i < 0) {
+            ReadableByteChannel data = loose.open(id);
+            if (data == null && refresh()) {
+                return open(id);
+            }
+            return data;
+        }
+        int entry = indexHeaderSize + i * ENTRY_SIZE;
+        long offset = index.getLong(entry + ID_SIZE + 1);
+        int length = index.getInt(entry + ID_SIZE + 1 + 8);
+        ByteBuffer data = packSlice(offset, length);
+        // Hand out the mapped bytes directly instead of copying them
+        return new ReadableByteChannel() {
+            private boolean open = true;
+
+            @Override
+            public int read(ByteBuffer dst) {
+                if (!data.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(dst.remaining(), data.remaining());
+                dst.put(data.slice(data.position(), n));
+                data.position(data.position() + n);
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return open;
+            }
+
+            @Override
+            public void close() {
+                open = false;
+            }
+        };
+    }
+
+    @Override
+    public List<String> ids(Type type) {
+        TreeSet<String> ids = new TreeSet<>(loose.ids(type));
+        for (int i = 0; i < count; i += 1) {
+            int entry = indexHeaderSize + i * ENTRY_SIZE;
+            if (index.get(entry + ID_SIZE) == type.ordinal()) {
+                ids.add(idAt(entry));
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /** Append every loose object to the pack, rewrite the sorted index and
+     *  delete the loose copies.  Returns the number of objects migrated. */
+    public int repack() {
+        List<String> looseIDs = new ArrayList<>();
+        List<Type> looseTypes = new ArrayList<>();
+        for (Type type : Type.values()) {
+            for (String id : loose.ids(type)) {
+                if (find(id) < 0) {
+                    looseIDs.add(id);
+                    looseTypes.add(type);
+                }
+            }
+        }
+        if (looseIDs.isEmpty()) {
+            return 0;
+        }
+
+        byte[][] entries = new byte[count + looseIDs.size()][];
+        for (int i = 0; i < count; i += 1) {
+            entries[i] = new byte[ENTRY_SIZE];
+            index.get(indexHeaderSize + i * ENTRY_SIZE, entries[i]);
+        }
+        packFile.getParentFile().mkdirs();
+        try (FileChannel out = FileChannel.open(packFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long position = out.size();
+            if (position == 0) {
+                position += out.write(header(PACK_MAGIC, VERSION, generation), 0);
+            }
+            for (int i = 0; i < looseIDs.size(); i += 1) {
+                String id = looseIDs.get(i);
+                try (FileChannel in = (FileChannel) loose.open(id)) {
+                    int length = (int) in.size();
+                    ByteBuffer record = ByteBuffer.allocate(ID_SIZE + 1 + 4);
+                    record.put(hexToBytes(id)).put((byte) looseTypes.get(i).ordinal());
+                    record.putInt(length).flip();
+                    position += out.write(record, position);
+                    long dataOffset = position;
+                    // Copy the object body without pulling it onto the heap
+                    while (position < dataOffset + length) {
+                        position += in.transferTo(position - dataOffset, dataOffset + length - position,
+                                out.position(position));
+                    }
+
+                    ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+                    entry.put(hexToBytes(id)).put((byte) looseTypes.get(i).ordinal());
+                    entry.putLong(dataOffset).putInt(length);
+                    entries[count + i] = entry.array();
+                }
+            }
+            out.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        Arrays.sort(entries, Arrays::compareUnsigned);
+        writeIndex(entries, generation);
+        for (String id : looseIDs) {
+            loose.delete(id);
+        }
+        mapPack();
+        return looseIDs.size();
+    }
+
+    /** A pack prune() has written aside, and what it dropped. */
+    public static class Pruned {
+        private final int objects;
+        private final long bytes;
+        private final byte[][] entries;
+        private final int generation;
+        /** The loose objects and index stamp the new pack was made from. */
+        private final List<String> looseIDs;
+        private final String indexStamp;
+
+        private Pruned(int objects, long bytes, byte[][] entries, int generation, List<String> looseIDs,
+                       String indexStamp) {
+            this.objects = objects;
+            this.bytes = bytes;
+            this.entries = entries;
+            this.generation = generation;
+            this.looseIDs = looseIDs;
+            this.indexStamp = indexStamp;
+        }
+
+        /** Return the number of objects dropped. */
+        public int getObjects() {
+            return objects;
+        }
+
+        /** Return the bytes the dropped objects took up, as pack records or
+         *  loose files. */
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    /** Write a new pack aside with only the objects in LIVEIDS, packed or
+     *  loose, for install() to put in place.  Returns what it drops. */
+    public Pruned prune(Set<String> liveIDs) {
+        List<String> looseIDs = looseIDs();
+        TreeSet<String> kept = new TreeSet<>();
+        int dropped = 0;
+        long droppedBytes = 0;
+        for (int i = 0; i < count; i += 1) {
+            int entry = indexHeaderSize + i * ENTRY_SIZE;
+            String id = idAt(entry);
+            if (liveIDs.contains(id)) {
+                kept.add(id);
+            } else {
+                dropped += 1;
+                droppedBytes += ID_SIZE + 1 + 4 + index.getInt(entry + ID_SIZE + 1 + 8);
+            }
+        }
+        for (String id : looseIDs) {
+            if (liveIDs.contains(id)) {
+                kept.add(id);
+            } else {
+                dropped += 1;
+                try (FileChannel in = (FileChannel) loose.open(id)) {
+                    droppedBytes += in.size();
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+
+        int newGeneration = generation + 1;
+        File tmp = join(packFile.getParentFile(), packFile.getName() + ".tmp");
+        byte[][] entries = new byte[kept.size()][];
+        packFile.getParentFile().mkdirs();
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = out.write(header(PACK_MAGIC, VERSION, newGeneration), 0);
+            int n = 0;
+            for (String id : kept) {
+                int i = find(id);
+                int entryStart = indexHeaderSize + i * ENTRY_SIZE;
+                Type type = i >= 0 ? Type.values()[index.get(entryStart + ID_SIZE)] : loose.typeOf(id);
+                FileChannel looseData = i >= 0 ? null : (FileChannel) loose.open(id);
+                int length = i >= 0 ? index.getInt(entryStart + ID_SIZE + 1 + 8) : (int) looseData.size();
+                ByteBuffer record = ByteBuffer.allocate(ID_SIZE + 1 + 4);
+                record.put(hexToBytes(id)).put((byte) type.ordinal()).putInt(length).flip();
+                position += out.write(record, position);
+
+                ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+                entry.put(hexToBytes(id)).put((byte) type.ordinal()).putLong(position).putInt(length);
+                entries[n] = entry.array();
+                n += 1;
+                // Copy the object body straight from the mapped pack or the loose file
+                if (looseData == null) {
+                    ByteBuffer data = packSlice(index.getLong(entryStart + ID_SIZE + 1), length);
+                    while (data.hasRemaining()) {
+                        position += out.write(data, position);
+                    }
+                } else {
+                    try (looseData) {
+                        long dataOffset = position;
+                        while (position < dataOffset + length) {
+                            position += looseData.transferTo(position - dataOffset,
+                                    dataOffset + length - position, out.position(position));
+                        }
+                    }
+                }
+            }
+            out.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return new Pruned(dropped, droppedBytes, entries, newGeneration, looseIDs, indexStamp);
+    }
+
+    /** Return true if no object has been added since PRUNED was written,
+     *  packed or loose. */
+    public boolean isCurrent(Pruned pruned) {
+        return stampOf(indexFile).equals(pruned.indexStamp) && looseIDs().equals(pruned.looseIDs);
+    }
+
+    /** Replace the pack with the one PRUNED wrote aside, and delete every
+     *  loose object it was made from. */
+    public void install(Pruned pruned) {
+        File tmp = join(packFile.getParentFile(), packFile.getName() + ".tmp");
+        // The index is written before the pack goes in, so a crash between
+        // the renames leaves everything mapPack needs to finish them
+        writePendingIndex(pruned.entries, pruned.generation);
+        // The pack goes first: a reader that sees the new index must find the new pack
+        move(tmp, packFile);
+        move(pendingIndexFile, indexFile);
+        for (String id : pruned.looseIDs) {
+            loose.delete(id);
+        }
+        mapPack();
+    }
+
+    private List<String> looseIDs() {
+        List<String> looseIDs = new ArrayList<>();
+        for (Type type : Type.values()) {
+            looseIDs.addAll(loose.ids(type));
+        }
+        return looseIDs;
+    }
+
+    /** Replace the index file with ENTRIES through an atomic rename, so a
+     *  reader never sees a partially written index. */
+    private void writeIndex(byte[][] entries, int packGeneration) {
+        writePendingIndex(entries, packGeneration);
+        move(pendingIndexFile, indexFile);
+    }
+
+    /** Write ENTRIES to the pending index and sync it. */
+    private void writePendingIndex(byte[][] entries, int packGeneration) {
+        ByteBuffer buf = ByteBuffer.allocate(INDEX_HEADER_SIZE + entries.length * ENTRY_SIZE);
+        buf.put(header(INDEX_MAGIC, INDEX_VERSION, entries.length));
+        buf.putInt(packGeneration);
+        for (byte[] entry : entries) {
+            buf.put(entry);
+        }
+        buf.flip();
+        try (FileChannel out = FileChannel.open(pendingIndexFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            out.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static void move(File from, File to) {
+        try {
+            Files.move(from.toPath(), to.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the generation of the complete version 2 index FILE, or -1 if
+     *  FILE is missing or not one. */
+    private static int generationOf(File file) {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+            while (header.hasRemaining() && in.read(header) >= 0) {
+                // Read until the header is full or the file ends
+            }
+            header.flip();
+            if (header.remaining() < INDEX_HEADER_SIZE || header.getInt(0) != INDEX_MAGIC
+                    || header.getInt(4) != INDEX_VERSION
+                    || in.size() != INDEX_HEADER_SIZE + (long) header.getInt(8) * ENTRY_SIZE) {
+                return -1;
+            }
+            return header.getInt(12);
+        } catch (IOException excp) {
+            return -1;
+        }
+    }
+
+    /** Return the generation in the header of the pack on disk, or -1. */
+    private int packGeneration() {
+        try (FileChannel in = FileChannel.open(packFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && in.read(header) >= 0) {
+                // Read until the header is full or the file ends
+            }
+            return header.hasRemaining() || header.getInt(0) != PACK_MAGIC ? -1 : header.getInt(8);
+        } catch (IOException excp) {
+            return -1;
+        }
+    }
+
+    private static ByteBuffer header(int magic, int version, int n) {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+        buf.putInt(magic).putInt(version).putInt(n).flip();
+        return buf;
+    }
+
+    private void mapPack() {
+        for (int attempt = 1; ; attempt += 1) {
+            this.count = 0;
+            this.generation = 0;
+            this.index = null;
+            this.pack = null;
+            closePack();
+            this.indexStamp = stampOf(indexFile);
+            if (!indexFile.isFile() || !packFile.isFile()) {
+                return;
+            }
+            this.index = map(indexFile);
+            mapWindows();
+            int indexVersion = index.getInt(4);
+            if (index.getInt(0) != INDEX_MAGIC || indexVersion < VERSION || indexVersion > INDEX_VERSION
+                    || pack[0].getInt(0) != PACK_MAGIC || pack[0].getInt(4) != VERSION) {
+                throw error("Corrupted pack in %s.", packFile.getParent());
+            }
+            this.indexHeaderSize = indexVersion == VERSION ? HEADER_SIZE : INDEX_HEADER_SIZE;
+            this.count = index.getInt(8);
+            this.generation = pack[0].getInt(8);
+            int indexGeneration = indexVersion == VERSION ? 0 : index.getInt(12);
+            if (indexGeneration == generation) {
+                return;
+            }
+            // install() died after replacing the pack: put its index in place.
+            // That is a write, and another command may finish it first while
+            // the lock changes hands, so look again once it is exclusive.
+            if (generationOf(pendingIndexFile) == generation) {
+                RepositoryLock.upgrade();
+                if (generationOf(pendingIndexFile) == packGeneration()) {
+                    move(pendingIndexFile, indexFile);
+                }
+                continue;
+            }
+            // A prune is between replacing the pack and replacing the index
+            if (attempt == MAX_MAP_ATTEMPTS) {
+                throw error("Corrupted pack in %s.", packFile.getParent());
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Map the index again if it has changed on disk since it was mapped;
+     *  returns true if it had. */
+    private boolean refresh() {
+        if (stampOf(indexFile).equals(indexStamp)) {
+            return false;
+        }
+        mapPack();
+        return true;
+    }
+
+    private static String stampOf(File file) {
+        return file.length() + ":" + file.lastModified();
+    }
+
+    /** Open the pack and map it one window at a time. */
+    private void mapWindows() {
+        try {
+            packChannel = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+            long size = packChannel.size();
+            pack = new MappedByteBuffer[(int) Math.max(1, (size + WINDOW_SIZE - 1) / WINDOW_SIZE)];
+            for (int i = 0; i < pack.length; i += 1) {
+                long start = i * WINDOW_SIZE;
+                pack[i] = packChannel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(WINDOW_SIZE, size - start));
+            }
+        } catch (IOException excp) {
+            closePack();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private void closePack() {
+        if (packChannel == null) {
+            return;
+        }
+        try {
+            // The windows stay mapped after the channel is closed
+            packChannel.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            packChannel = null;
+        }
+    }
+
+    /** Return the LENGTH bytes of the pack at OFFSET. */
+    private ByteBuffer packSlice(long offset, int length) {
+        int window = (int) (offset / WINDOW_SIZE);
+        int start = (int) (offset - window * WINDOW_SIZE);
+        if (window < pack.length && start + (long) length <= pack[window].capacity()) {
+            return pack[window].slice(start, length);
+        }
+        try {
+            return packChannel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the position of ID in the index, or -1 if it is not packed. */
+    private int find(String id) {
+        if (count == 0 || id.length() != UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = hexToBytes(id);
+        byte[] probe = new byte[ID_SIZE];
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            index.get(indexHeaderSize + mid * ENTRY_SIZE, probe);
+            int cmp = Arrays.compareUnsigned(probe, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private String idAt(int entry) {
+        byte[] id = new byte[ID_SIZE];
+        index.get(entry, id);
+        return bytesToHex(id);
+    }
+}
@@ -2,10 +2,18 @@ package gitlet;
 
 import java.io.Serializable;
 
-import static gitlet.MyUtils.saveObj;
 import static gitlet.Repository.*;
+import static gitlet.Utils.deserialize;
+import static gitlet.Utils.join;
+import static gitlet.Utils.writeContents;
 
+/** HEAD, naming the active branch, or a branch, naming its head commit. */
 public class Pointer implements Serializable {
+    /** Pinned so that pointers stored with Java serialization stay readable. */
+    private static final long serialVersionUID = 4018722234557144531L;
+    private static final byte BRANCH = 0;
+    private static final byte HEAD = 1;
+
     private String commitID;
     private String branchName;
     private String initCommitID;
@@ -21,15 +29,37 @@ public class Pointer implements Serializable {
         }
     }
 
+    /** Return the record this pointer is stored as: KIND NAME ID. */
+    public byte[] encode() {
+        boolean isHead = activeBranchName != null;
+        Codec.Encoder out = new Codec.Encoder(Codec.Type.POINTER, 64);
+        out.writeByte(isHead ? HEAD : BRANCH);
+        out.writeString(isHead ? activeBranchName : branchName);
+        out.writeID(isHead ? initCommitID : commitID);
+        return out.toByteArray();
+    }
+
+    /** Return the pointer stored as DATA. */
+    public static Pointer decode(byte[] data) {
+        if (Codec.isLegacy(data)) {
+            return deserialize(data, Pointer.class);
+        }
+        Codec.Decoder in = new Codec.Decoder(data, Codec.Type.POINTER);
+        boolean isHead = in.readByte() == HEAD;
+        Pointer pointer = new Pointer(isHead, in.readString(), in.readID());
+        in.end();
+        return pointer;
+    }
+
     /** Save branch and head. */
-    // Save branch by branchName
+    // Save branch by branchName, which the journal moves into the ref table when the command ends
     public void saveBranchFile() {
-        saveObj(BRANCH_FOLDER, this.branchName, this);
+        writeContents(join(BRANCH_FOLDER, this.branchName), encode());
     }
 
     // Save HEAD by headName
     public void saveHeadFile() {
-        saveObj(GITLET_DIR, HEADNAME, this);
+        writePointer(join(GITLET_DIR, HEADNAME), this);
     }
 
     /** Get variables from commit. */
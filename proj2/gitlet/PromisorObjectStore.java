@@ -0,0 +1,187 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Utils.*;
+
+/** An object store that may lack blobs a remote has promised to send.
+ *
+ *  A blob-less fetch (fetch --filter=blob:none) brings the commits and
+ *  trees of a remote branch but none of its blobs, and records the ids of
+ *  the blobs it left out, with the name of the remote, in .gitlet/promised.
+ *  Reading a promised blob that is not here fetches it from that remote
+ *  first, and prefetch fetches all the blobs a command is about to read in
+ *  one transfer, so checking out a commit costs one round trip and not one
+ *  for every file.  Fetched blobs are dropped from the list.  A command
+ *  that only holds the repository lock shared upgrades it before it
+ *  fetches.
+ *
+ *  The list is PROMISED REMOTE COUNT IDS as a Codec record, and is read
+ *  the first time a blob is missing.
+ *  @author Yun Zhu
+ */
+public class PromisorObjectStore implements ObjectStore {
+    private final ObjectStore store;
+    private final File gitletDir;
+    private final File promisedFile;
+
+    /** The remote that promised the blobs, or null if there are none. */
+    private String remoteName;
+    private TreeSet<String> promised;
+
+    public PromisorObjectStore(File gitletDir, ObjectStore store) {
+        this.store = store;
+        this.gitletDir = gitletDir;
+        this.promisedFile = join(gitletDir, "promised");
+    }
+
+    @Override
+    public boolean contains(String id) {
+        return store.contains(id);
+    }
+
+    @Override
+    public byte[] get(String id) {
+        byte[] data = store.get(id);
+        if (data == null && isPromised(id)) {
+            fetch(List.of(id));
+            data = store.get(id);
+        }
+        return data;
+    }
+
+    @Override
+    public ReadableByteChannel open(String id) {
+        ReadableByteChannel data = store.open(id);
+        if (data == null && isPromised(id)) {
+            fetch(List.of(id));
+            data = store.open(id);
+        }
+        return data;
+    }
+
+    @Override
+    public void put(String id, Type type, byte[] data) {
+        store.put(id, type, data);
+    }
+
+    @Override
+    public void put(String id, Type type, File file) {
+        store.put(id, type, file);
+    }
+
+    @Override
+    public List<String> ids(Type type) {
+        return store.ids(type);
+    }
+
+    @Override
+    public void prefetch(Collection<String> ids) {
+        fetch(ids);
+    }
+
+    /** Return true if the blob ID is promised and not here yet. */
+    public synchronized boolean isPromised(String id) {
+        load();
+        return promised.contains(id) && !store.contains(id);
+    }
+
+    /** Record that the remote REMOTENAME will send the blobs IDS when they
+     *  are needed.  A repository only has blobs promised by one remote. */
+    public synchronized void promise(String remoteName, Collection<String> ids) {
+        load();
+        if (ids.isEmpty()) {
+            return;
+        }
+        if (this.remoteName != null && !this.remoteName.equals(remoteName) && !promised.isEmpty()) {
+            printAndExit("Blobs are already promised by remote " + this.remoteName + ".");
+        }
+        this.remoteName = remoteName;
+        promised.addAll(ids);
+        save();
+    }
+
+    /** Fetch those of IDS that are promised and not here, in one transfer. */
+    private synchronized void fetch(Collection<String> ids) {
+        load();
+        if (promised.isEmpty()) {
+            return;
+        }
+        List<String> wanted = new ArrayList<>();
+        for (String id : new TreeSet<>(ids)) {
+            if (promised.contains(id) && !store.contains(id)) {
+                wanted.add(id);
+            }
+        }
+        if (wanted.isEmpty()) {
+            return;
+        }
+        // Fetching writes the pack and the list, which a reader needs the lock
+        // exclusive for.  Other commands may get in while it changes hands, so
+        // read the list again and fetch only what is still missing.
+        RepositoryLock.upgrade();
+        remoteName = null;
+        promised = null;
+        load();
+        wanted.removeIf(id -> !promised.contains(id) || store.contains(id));
+        if (wanted.isEmpty()) {
+            return;
+        }
+        File remoteFile = join(gitletDir, "remote", remoteName);
+        if (!isFile(remoteFile)) {
+            printAndExit("A remote with that name does not exist.");
+        }
+        Remote remote = Remote.decode(readContents(remoteFile));
+        if (!remote.getRemoteDir().exists()) {
+            printAndExit("Remote directory not found.");
+        }
+        long start = System.nanoTime();
+        try (Transfer remoteEnd = Transfer.open(remote.getRemoteDir())) {
+            remoteEnd.fetchObjects(wanted);
+        }
+        promised.removeIf(store::contains);
+        save();
+        Stats.report("promisor: %d blobs fetched from %s in %.1f ms",
+                wanted.size(), remoteName, (System.nanoTime() - start) / 1e6);
+    }
+
+    private void load() {
+        if (promised != null) {
+            return;
+        }
+        promised = new TreeSet<>();
+        if (!isFile(promisedFile)) {
+            return;
+        }
+        Codec.Decoder in = new Codec.Decoder(readContents(promisedFile), Codec.Type.PROMISED);
+        remoteName = in.readString();
+        for (int n = in.readVarint(); n > 0; n -= 1) {
+            promised.add(in.readID());
+        }
+        in.end();
+    }
+
+    private void save() {
+        if (promised.isEmpty()) {
+            unrestrictedDelete(promisedFile);
+            return;
+        }
+        Codec.Encoder out = new Codec.Encoder(Codec.Type.PROMISED, 16 + promised.size() * UID_LENGTH / 2);
+        out.writeString(remoteName).writeVarint(promised.size());
+        for (String id : promised) {
+            out.writeID(id);
+        }
+        writeContents(promisedFile, out.toByteArray());
+    }
+
+    /** Return true if FILE exists, counting the changes this command made. */
+    private static boolean isFile(File file) {
+        return Journal.isPending(file) ? Journal.read(file) != null : file.isFile();
+    }
+}
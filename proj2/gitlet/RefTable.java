@@ -0,0 +1,379 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Utils.*;
+
+/** The branches of a repository, remote-tracking branches included, kept
+ *  in one file (.gitlet/refs) instead of a file per branch.
+ *
+ *  The file is a table of every branch sorted by name, which is memory
+ *  mapped and binary searched, so looking up a branch neither lists a
+ *  directory nor reads the other branches.  Updates are appended after
+ *  the table in batches, one per command, and once the batches outgrow a
+ *  quarter of the table they are folded into a new table, written aside
+ *  and renamed over the old one.  Only the batches are parsed when the
+ *  file is opened.
+ *
+ *  The table is MAGIC VERSION COUNT NAMES_SIZE, then NAME_ENDS(4 each),
+ *  IDS(20 each) and the names in UTF-8, the name of position i ending at
+ *  NAME_ENDS[i].  Names are sorted by their UTF-8 bytes.  A batch is
+ *  LENGTH(4) CRC(4) and LENGTH bytes of updates OP(1) NAME_SIZE(2) NAME
+ *  [ID(20)], OP being SET or DELETE and NAME in UTF-8 like the table.  A batch that was torn
+ *  by a crash fails its CRC and is ignored, and cut off by the next
+ *  update; the journal that made it is replayed.
+ *
+ *  Repositories made before the table have a file per branch in
+ *  .gitlet/branch, which are read until the first update writes a table.
+ *  @author Yun Zhu
+ */
+public class RefTable {
+    private static final int MAGIC = 0x474c5246; // "GLRF"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int ID_SIZE = 20;
+    private static final byte SET = 1;
+    private static final byte DELETE = 2;
+    /** Batches shorter than this are never worth folding into the table. */
+    private static final int MIN_FOLD_SIZE = 4096;
+
+    private final File file;
+    private final File legacyDir;
+    private ByteBuffer table;
+    private int count;
+    private int namesStart;
+    /** Where the table ends and the batches start in the file. */
+    private long tableEnd;
+    /** Where the last whole batch ends. */
+    private long end;
+    /** Name -> commit id, or null if deleted, from the batches or the legacy files. */
+    private final TreeMap<String, String> updates = new TreeMap<>(RefTable::compareNames);
+    private boolean legacy;
+
+    private RefTable(File gitletDir) {
+        this.file = join(gitletDir, "refs");
+        this.legacyDir = join(gitletDir, "branch");
+    }
+
+    /** Open the branches of GITLETDIR. */
+    public static RefTable open(File gitletDir) {
+        RefTable refs = new RefTable(gitletDir);
+        if (refs.file.isFile()) {
+            refs.read();
+        } else {
+            refs.readLegacy();
+        }
+        return refs;
+    }
+
+    /** Return the head commit id of the branch NAME, or null if there is
+     *  no such branch. */
+    public String get(String name) {
+        if (updates.containsKey(name)) {
+            return updates.get(name);
+        }
+        int pos = position(name);
+        return pos < 0 ? null : idAt(pos);
+    }
+
+    /** Return the names of all branches, sorted. */
+    public List<String> names() {
+        return namesWithPrefix("");
+    }
+
+    /** Return the names of the branches that start with PREFIX, sorted.
+     *  The first one in the table is found by binary search. */
+    public List<String> namesWithPrefix(String prefix) {
+        List<String> names = new ArrayList<>();
+        Iterator<Map.Entry<String, String>> pending = updates.tailMap(prefix, true).entrySet().iterator();
+        Map.Entry<String, String> update = pending.hasNext() ? pending.next() : null;
+        for (int pos = lowerBound(prefix); pos < count; pos += 1) {
+            String name = nameAt(pos);
+            if (!name.startsWith(prefix)) {
+                break;
+            }
+            // Merge the updated names in, which replace those in the table
+            while (update != null && compareNames(update.getKey(), name) <= 0) {
+                if (update.getValue() != null) {
+                    names.add(update.getKey());
+                }
+                boolean replaces = update.getKey().equals(name);
+                update = pending.hasNext() ? pending.next() : null;
+                if (replaces) {
+                    name = null;
+                    break;
+                }
+            }
+            if (name != null) {
+                names.add(name);
+            }
+        }
+        for (; update != null && update.getKey().startsWith(prefix);
+             update = pending.hasNext() ? pending.next() : null) {
+            if (update.getValue() != null) {
+                names.add(update.getKey());
+            }
+        }
+        return names;
+    }
+
+    /** Apply CHANGES, branch name -> new head commit id or null to delete
+     *  it, as one batch.  The caller syncs the file. */
+    public void update(Map<String, String> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        updates.putAll(changes);
+        if (legacy || !file.isFile() || end - tableEnd > Math.max(MIN_FOLD_SIZE, tableEnd / 4)) {
+            fold();
+            return;
+        }
+        byte[] batch = encodeBatch(changes);
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            // Cut off a batch torn by a crash, which the journal has replayed since
+            out.truncate(end);
+            ByteBuffer buf = ByteBuffer.wrap(batch);
+            while (buf.hasRemaining()) {
+                out.write(buf, end + buf.position());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        end += batch.length;
+    }
+
+    /** Write every branch as a new table with no batches. */
+    private void fold() {
+        TreeMap<String, String> all = new TreeMap<>(RefTable::compareNames);
+        for (int pos = 0; pos < count; pos += 1) {
+            all.put(nameAt(pos), idAt(pos));
+        }
+        for (Map.Entry<String, String> update : updates.entrySet()) {
+            if (update.getValue() == null) {
+                all.remove(update.getKey());
+            } else {
+                all.put(update.getKey(), update.getValue());
+            }
+        }
+        List<byte[]> names = new ArrayList<>(all.size());
+        int namesSize = 0;
+        for (String name : all.keySet()) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            names.add(bytes);
+            namesSize += bytes.length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + all.size() * (4 + ID_SIZE) + namesSize);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(all.size()).putInt(namesSize);
+        int nameEnd = 0;
+        for (byte[] name : names) {
+            nameEnd += name.length;
+            buf.putInt(nameEnd);
+        }
+        for (String id : all.values()) {
+            buf.put(hexToBytes(id));
+        }
+        for (byte[] name : names) {
+            buf.put(name);
+        }
+        buf.flip();
+
+        File tmp = join(file.getParentFile(), file.getName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            out.force(true);
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        updates.clear();
+        read();
+        if (legacy) {
+            // The table has to be on disk before the files it replaces go
+            Journal.syncDirectory(file.getParentFile());
+            for (File branchFile : legacyFiles()) {
+                branchFile.delete();
+            }
+            legacyDir.delete();
+            legacy = false;
+        }
+    }
+
+    private void read() {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                continue;
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw error("Corrupted ref table in %s.", file.getParent());
+            }
+            count = header.getInt();
+            int namesSize = header.getInt();
+            namesStart = HEADER_SIZE + count * (4 + ID_SIZE);
+            tableEnd = namesStart + namesSize;
+            table = channel.map(FileChannel.MapMode.READ_ONLY, 0, tableEnd);
+            readBatches(channel);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Read the batches after the table, up to the first torn one. */
+    private void readBatches(FileChannel channel) throws IOException {
+        long size = channel.size();
+        end = tableEnd;
+        while (end + 8 <= size) {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            channel.read(header, end);
+            header.flip();
+            int length = header.getInt();
+            if (length < 0 || end + 8 + length > size) {
+                return;
+            }
+            ByteBuffer batch = ByteBuffer.allocate(length);
+            while (batch.hasRemaining() && channel.read(batch, end + 8 + batch.position()) > 0) {
+                continue;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(batch.array());
+            if ((int) crc.getValue() != header.getInt()) {
+                return;
+            }
+            batch.flip();
+            while (batch.hasRemaining()) {
+                byte op = batch.get();
+                byte[] name = new byte[batch.getShort() & 0xffff];
+                batch.get(name);
+                String id = null;
+                if (op == SET) {
+                    byte[] rawID = new byte[ID_SIZE];
+                    batch.get(rawID);
+                    id = bytesToHex(rawID);
+                }
+                updates.put(new String(name, StandardCharsets.UTF_8), id);
+            }
+            end += 8 + length;
+        }
+    }
+
+    private void readLegacy() {
+        count = 0;
+        for (File branchFile : legacyFiles()) {
+            try {
+                byte[] data = Files.readAllBytes(branchFile.toPath());
+                updates.put(branchFile.getName(), Pointer.decode(data).getCommitID());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            legacy = true;
+        }
+    }
+
+    /** The branch files of a repository made before the table, as they
+     *  are on disk, whatever the running command has changed. */
+    private File[] legacyFiles() {
+        File[] files = legacyDir.listFiles(File::isFile);
+        return files == null ? new File[0] : files;
+    }
+
+    private static byte[] encodeBatch(Map<String, String> changes) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                out.writeByte(change.getValue() == null ? DELETE : SET);
+                byte[] name = change.getKey().getBytes(StandardCharsets.UTF_8);
+                if (name.length > 0xffff) {
+                    throw new IllegalArgumentException("Branch name is too long.");
+                }
+                out.writeShort(name.length);
+                out.write(name);
+                if (change.getValue() != null) {
+                    out.write(hexToBytes(change.getValue()));
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] updates = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(updates);
+        return ByteBuffer.allocate(8 + updates.length)
+                .putInt(updates.length).putInt((int) crc.getValue()).put(updates).array();
+    }
+
+    /** Return the position of NAME in the table, or -1. */
+    private int position(String name) {
+        int pos = lowerBound(name);
+        return pos < count && compareAt(pos, name.getBytes(StandardCharsets.UTF_8)) == 0 ? pos : -1;
+    }
+
+    /** Return the first position whose name is not below NAME. */
+    private int lowerBound(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int compareAt(int pos, byte[] key) {
+        int start = nameStart(pos);
+        int length = table.getInt(HEADER_SIZE + pos * 4) - start;
+        for (int i = 0; i < length && i < key.length; i += 1) {
+            int cmp = Integer.compare(table.get(namesStart + start + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private static int compareNames(String a, String b) {
+        return Arrays.compareUnsigned(a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private int nameStart(int pos) {
+        return pos == 0 ? 0 : table.getInt(HEADER_SIZE + (pos - 1) * 4);
+    }
+
+    private String nameAt(int pos) {
+        byte[] name = new byte[table.getInt(HEADER_SIZE + pos * 4) - nameStart(pos)];
+        table.get(namesStart + nameStart(pos), name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    private String idAt(int pos) {
+        byte[] id = new byte[ID_SIZE];
+        table.get(HEADER_SIZE + count * 4 + pos * ID_SIZE, id);
+        return bytesToHex(id);
+    }
+}
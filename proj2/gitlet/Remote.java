@@ -2,12 +2,14 @@ package gitlet;
 
 import java.io.File;
 import java.io.Serializable;
-import java.util.List;
 
+import static gitlet.Utils.deserialize;
 import static gitlet.Utils.join;
-import static gitlet.Utils.plainFilenamesIn;
 
 public class Remote implements Serializable {
+    /** Pinned so that remotes stored with Java serialization stay readable. */
+    private static final long serialVersionUID = 2808025710163565015L;
+
     private String remoteName;
     private File remoteDir;
 
@@ -16,8 +18,22 @@ public class Remote implements Serializable {
         this.remoteDir = join(dirPathString);
     }
 
-    public List<String> getBranchNames() {
-        return plainFilenamesIn(join(remoteDir, "branch"));
+    /** Return the record this remote is stored as: NAME DIRECTORY. */
+    public byte[] encode() {
+        Codec.Encoder out = new Codec.Encoder(Codec.Type.REMOTE, 64);
+        out.writeString(remoteName).writeString(remoteDir.getPath());
+        return out.toByteArray();
+    }
+
+    /** Return the remote stored as DATA. */
+    public static Remote decode(byte[] data) {
+        if (Codec.isLegacy(data)) {
+            return deserialize(data, Remote.class);
+        }
+        Codec.Decoder in = new Codec.Decoder(data, Codec.Type.REMOTE);
+        Remote remote = new Remote(in.readString(), in.readString());
+        in.end();
+        return remote;
     }
 
     public String getRemoteName() {
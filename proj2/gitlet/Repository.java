@@ -1,8 +1,14 @@
 package gitlet;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static gitlet.MyUtils.*;
 import static gitlet.Utils.*;
@@ -20,15 +26,37 @@ public class Repository {
     public static final File CWD = new File(System.getProperty("user.dir"));
     /** The .gitlet directory. */
     public static final File GITLET_DIR = join(CWD, ".gitlet");
-    public static final File ADDITION_FOLDER = join(GITLET_DIR, "addition");
-    public static final File REMOVED_FOLDER = join(GITLET_DIR, "removed");
+    public static final File STAGING_FILE = join(GITLET_DIR, "staging");
     public static final File COMMITS_FOLDER = join(GITLET_DIR, "commits");
     public static final File BLOB_FOLDER = join(GITLET_DIR, "blobs");
+    /** Where branches were kept before the ref table, and how the journal names them. */
     public static final File BRANCH_FOLDER = join(GITLET_DIR, "branch");
     public static final File REMOTE_FOLDER = join(GITLET_DIR, "remote");
+    public static final File PACK_FOLDER = join(GITLET_DIR, "pack");
+    /** The commits at the end of a shallow history, whose parents were not fetched. */
+    public static final File SHALLOW_FILE = join(GITLET_DIR, "shallow");
+    /** The blobs a blob-less fetch left for the remote to send when needed. */
+    public static final File PROMISED_FILE = join(GITLET_DIR, "promised");
     public static final String HEADNAME = "HEAD";
     public static final String MASTERNAME = "master";
 
+    /** The object store holding every commit and blob, opened on first use.
+     *  It fetches the blobs a blob-less fetch left out when they are read. */
+    private static PromisorObjectStore objectStore;
+    /** The commit graph of this repository, opened on first use. */
+    private static CommitGraph commitGraph;
+    private static MessageIndex messageIndex;
+    /** Below this many files merged by line, starting threads costs more than it saves. */
+    private static final int MIN_PARALLEL_MERGES = 4;
+    private static final ObjectCache<String, Commit> commitCache = new ObjectCache<>("commit", 16L << 20);
+    private static final ObjectCache<File, Pointer> pointerCache = new ObjectCache<>("pointer", 1L << 20);
+    /** The branches, opened on first use.  The journal updates it in place. */
+    private static RefTable refTable;
+    /** The stat cache of the working files, opened on first use. */
+    private static Index workingIndex;
+    /** The staging area, opened on first use. */
+    private static Staging staging;
+
     public static void init(String msg) {
         if (validateInit()) {
             System.out.println("A Gitlet version-control system already exists in the current directory.");
@@ -42,24 +70,23 @@ public class Repository {
             printAndExit("File does not exist.");
         }
 
-        if (plainFilenamesIn(REMOVED_FOLDER).contains(fileName)) {
-            unrestrictedDelete(join(REMOVED_FOLDER, fileName));
-        }
-
-        String fileID = getFileID(join(CWD, fileName));
-        for (Blob blob : getCurrentCommit().getBlobs()) {
-            if (fileID.equals(blob.getCopiedFileID())) {
-                unrestrictedDelete(join(REMOTE_FOLDER, fileName));
-                unrestrictedDelete(join(ADDITION_FOLDER, fileName));
-                return;
-            }
+        // Already staged and untouched since: nothing to hash or store
+        File workingFile = join(CWD, fileName);
+        if (staging().isStagedAsIs(fileName, workingFile)) {
+            return;
         }
 
-        File workingFile = join(CWD, fileName);
-        String workingFileID = getFileID(workingFile);
-        if (!comparedCommitsAndWorking(workingFileID)) {
-            saveAdditionFile(fileName, readContentsAsString(workingFile));
+        String fileID = getWorkingFileID(fileName);
+        workingIndex().save();
+        String trackedBlobID = getCurrentCommit().getBlobID(fileName);
+        if (trackedBlobID != null && fileID.equals(getFileID(fileName, trackedBlobID))) {
+            // Back to the tracked version, which also undoes a staged removal
+            staging().unstage(fileName);
+        } else {
+            // The blob goes into the store now, as a delta against the tracked version when that pays
+            staging().add(fileName, workingFile, trackedBlobID);
         }
+        staging().save();
     }
 
     public static void commit(String message) {
@@ -68,70 +95,61 @@ public class Repository {
 
     public static void rm(String fileName) {
         // Unstage the file if it is currently staged for addition
-        if (plainFilenamesIn(ADDITION_FOLDER).contains(fileName)) {
-            List<String> stagingFileIDs = new LinkedList<>();
-            for (String stagingFileName : plainFilenamesIn(ADDITION_FOLDER)) {
-                String stagingFileID = getFileID(join(ADDITION_FOLDER, stagingFileName));
-                stagingFileIDs.add(stagingFileID);
-            }
-
-            if (stagingFileIDs.size() != 0) {
-                String fileID = getFileID(join(ADDITION_FOLDER, fileName));
-                for (String stagingFileID : stagingFileIDs) {
-                    if (fileID.equals(stagingFileID)) {
-                        unrestrictedDelete(join(ADDITION_FOLDER, fileName));
-                        return;
-                    }
-                }
-            }
+        if (staging().getAddedBlobID(fileName) != null) {
+            staging().unstage(fileName);
+            staging().save();
+            return;
         }
 
-        Commit currentCommit = getCurrentCommit();
-        for (Blob blob : currentCommit.getBlobs()) {
-            if (fileName.equals(blob.getCopiedFileName())) {
-                // Stage the file for removal
-                saveRemovedFile(fileName, blob.getCopiedFileContent());
-                unrestrictedDelete(join(ADDITION_FOLDER, fileName));
+        String blobID = getCurrentCommit().getBlobID(fileName);
+        if (blobID != null) {
+            // Stage the file for removal
+            staging().stageRemoval(fileName, blobID);
+            staging().save();
 
-                // Remove the file from the working directory
-                if (hasFileNameInCWD(fileName)) {
-                    restrictedDelete(join(CWD, fileName));
-                }
-                return;
-            }
+            // Remove the file from the working directory
+            deleteWorkingFile(fileName);
+            return;
         }
 
         System.out.println("No reason to remove the file.");
     }
 
-    public static void log() {
-        printCommitLogInActiveBranch(getCurrentCommit());
+    public static void log(String[] args) {
+        LogPrinter printer = LogPrinter.parse(args);
+        printer.log(extractActiveBranchThenGetCurrentCommitID(extractHEADThenGetActiveBranchName()));
     }
 
     public static void globalLog() {
-        for (String id : plainFilenamesIn(COMMITS_FOLDER)) {
-            Commit commit = readObject(join(COMMITS_FOLDER, id), Commit.class);
-            printCommitLog(commit);
-        }
+        // Stream the commit summaries instead of reading every commit
+        LogPrinter.globalLog();
     }
 
     public static void find(String message) {
-        boolean hasCommit = false;
-        for (String id : plainFilenamesIn(COMMITS_FOLDER)) {
-            Commit commit = readObject(join(COMMITS_FOLDER, id), Commit.class);
-            if (commit.getMessage().equals(message)) {
-                System.out.println(commit.getCommitID());
-                hasCommit = true;
-            }
+        printFoundCommits(messageIndex().find(message));
+    }
+
+    // find --prefix [message] and find --substring [message]
+    public static void find(String mode, String message) {
+        if (mode.equals("--prefix")) {
+            printFoundCommits(messageIndex().findByPrefix(message));
+        } else {
+            printFoundCommits(messageIndex().findBySubstring(message));
         }
+    }
 
-        if (!hasCommit) {
+    private static void printFoundCommits(Set<String> commitIDs) {
+        if (commitIDs.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
+        for (String commitID : commitIDs) {
+            System.out.println(commitID);
+        }
     }
 
     public static void status() {
         printStatus();
+        workingIndex().save();
     }
 
     public static void checkout(String[] args) {
@@ -148,49 +166,36 @@ public class Repository {
 
     public static void branch(String branchName) {
         //  If a branch with the given name already exists
-        checkExistSameFileInFolder(branchName, BRANCH_FOLDER, "A branch with that name already exists.");
+        checkExistBranch(branchName, "A branch with that name already exists.");
 
-        saveBranch(branchName, getCurrentCommit().getCommitID());
+        updateBranch(branchName, null, getCurrentCommit().getCommitID());
     }
 
     public static void rmBranch(String branchName) {
         // If a branch with the given name does not exist
-        checkNotExistSameFileInFolder(branchName, BRANCH_FOLDER, "A branch with that name does not exist.");
+        checkNotExistBranch(branchName, "A branch with that name does not exist.");
         // If the branch to be removed is the current branch
         if (extractHEADThenGetActiveBranchName().equals(branchName)) {
             printAndExit("Cannot remove the current branch.");
         }
 
-        unrestrictedDelete(join(BRANCH_FOLDER, branchName));
+        deleteBranch(branchName, extractBranchThenGetCommitID(branchName));
     }
 
     public static void reset(String commitID) {
+        commitID = resolveCommitID(commitID);
         // If no commit with the given id exists
-        checkNotExistSameFileInFolder(commitID, COMMITS_FOLDER, "No commit with that id exists.");
-        Commit commit = readObject(join(COMMITS_FOLDER, commitID), Commit.class);
+        checkNotExistCommit(commitID, "No commit with that id exists.");
+        Commit commit = readCommit(commitID);
         checkUntrackedFileError();
 
         // 1. Remove tracked files that are not present in the given commit
-        for (String workingFileName : plainFilenamesIn(CWD)) {
-            if (!commit.getCopiedFileIDs().contains(getFileID(join(CWD, workingFileName)))) {
-                restrictedDelete(join(CWD, workingFileName));
-            }
-        }
-
         // 2. Check out all the files tracked by the given commit
-        for (String copiedFileName : commit.getCopiedFileNames()) {
-            for (Blob blob : commit.getBlobs()) {
-                if (copiedFileName.equals(blob.getCopiedFileName())) {
-                    // Put the file in the CWD or overwrite the old version
-                    String content = blob.getCopiedFileContent();
-                    saveContent(CWD, copiedFileName, content);
-                    return;
-                }
-            }
-        }
+        new Checkout(getCurrentCommit(), commit).run();
 
         // 3. Move the current branch's head to that commit node
-        saveActiveBranch(extractHEADThenGetActiveBranchName(), commitID);
+        String activeBranchName = extractHEADThenGetActiveBranchName();
+        updateBranch(activeBranchName, extractActiveBranchThenGetCurrentCommitID(activeBranchName), commitID);
 
         // 4. Clear the staging area
         cleanStaging();
@@ -199,11 +204,11 @@ public class Repository {
     public static void merge(String branchName) {
         branchName = convertRemoteBranchName(branchName);
         // If there are staged additions or removals present
-        if (plainFilenamesIn(ADDITION_FOLDER).size() > 0 || plainFilenamesIn(REMOVED_FOLDER).size() > 0) {
+        if (!staging().isEmpty()) {
             printAndExit("You have uncommitted changes.");
         }
         // If a branch with the given name does not exist
-        if (!plainFilenamesIn(BRANCH_FOLDER).contains(branchName)) {
+        if (!hasBranch(branchName)) {
             printAndExit("A branch with that name does not exist.");
         }
         // If attempting to merge a branch with itself
@@ -227,11 +232,31 @@ public class Repository {
 
         // Get the target branch commit as "other"
         String otherCommitID = extractBranchThenGetCommitID(branchName);
-        Commit other = readObject(join(COMMITS_FOLDER, otherCommitID), Commit.class);
+        Commit other = readCommit(otherCommitID);
         mergeHelper(split, other);
         commitHelper(getMergeMessage(branchName), true, branchName);
     }
 
+    public static void diff(String[] args) {
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        try {
+            if (args.length == 3) {
+                diffCommits(readExistingCommit(args[1]), readExistingCommit(args[2]), out);
+            } else if (args.length == 2) {
+                diffWorkingFiles(readExistingCommit(args[1]).getFiles(), out);
+            } else {
+                // Against the staging area: the current commit with the staged changes applied
+                Map<String, String> files = new TreeMap<>(getCurrentCommit().getFiles());
+                files.keySet().removeAll(staging().getRemovals().keySet());
+                files.putAll(staging().getAdditions());
+                diffWorkingFiles(files, out);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     public static void addRemote(String remoteName, String dirPathString) {
         // If a remote with the given name already exists
         if (plainFilenamesIn(REMOTE_FOLDER).contains(remoteName)) {
@@ -239,7 +264,7 @@ public class Repository {
         }
 
         Remote remote = new Remote(remoteName, dirPathString);
-        saveObj(REMOTE_FOLDER, remoteName, remote);
+        writeContents(join(REMOTE_FOLDER, remoteName), remote.encode());
     }
 
     public static void rmRemote(String remoteName) {
@@ -256,36 +281,46 @@ public class Repository {
     }
 
     public static void push(String remoteName, String remoteBranchName) {
-        Remote remote = readObject(join(REMOTE_FOLDER, remoteName), Remote.class);
+        Remote remote = Remote.decode(readContents(join(REMOTE_FOLDER, remoteName)));
         // If the remote .gitlet directory does not exist
         validateRemoteDir(remote);
-        File remoteDir = remote.getRemoteDir();
-        // If the remote branch's head is not in the history of the current local head
-        Pointer remoteActiveBranch = readObject(join(remoteDir, "branch", remoteBranchName), Pointer.class);
-        // Note: HEAD point to branch, branch point to commit
-        String remoteHeadID = remoteActiveBranch.getCommitID();
-        if (!isRemoteHeadIDInHistoryOfLocal(remoteHeadID, getCurrentCommit())) {
-            printAndExit("Please pull down remote changes before pushing.");
-        }
         Commit localCurrentCommit = getCurrentCommit();
-        pushHelper(remoteDir, localCurrentCommit, remoteHeadID);
-        saveRemoteBranch(remoteDir, remoteBranchName, localCurrentCommit.getCommitID());
-        saveRemoteHEAD(remoteDir, remoteBranchName, getInitCommitID());
+        try (Transfer remoteEnd = Transfer.open(remote.getRemoteDir())) {
+            // If the remote branch's head is not in the history of the current local head
+            String remoteHeadID = remoteEnd.branchHead(remoteBranchName);
+            if (remoteHeadID != null && !isRemoteHeadIDInHistoryOfLocal(remoteHeadID, localCurrentCommit)) {
+                printAndExit("Please pull down remote changes before pushing.");
+            }
+            // Refused if the remote branch moved since it was read
+            if (!remoteEnd.push(remoteBranchName, localCurrentCommit.getCommitID(), remoteHeadID)) {
+                printAndExit("Please pull down remote changes before pushing.");
+            }
+        }
     }
 
     public static void fetch(String remoteName, String remoteBranchName) {
-        Remote remote = readObject(join(REMOTE_FOLDER, remoteName), Remote.class);
+        fetch(remoteName, remoteBranchName, 0, true);
+    }
+
+    // fetch --depth DEPTH (0: all of the history) and --filter=blob:none (WITHBLOBS false)
+    public static void fetch(String remoteName, String remoteBranchName, int depth, boolean withBlobs) {
+        Remote remote = Remote.decode(readContents(join(REMOTE_FOLDER, remoteName)));
         // If the remote .gitlet directory does not exist
         validateRemoteDir(remote);
-        // If the remote Gitlet repository does not have the given branch name
-        if (!remote.getBranchNames().contains(remoteBranchName)) {
-            printAndExit("That remote does not have that branch.");
+        try (Transfer remoteEnd = Transfer.open(remote.getRemoteDir())) {
+            // If the remote Gitlet repository does not have the given branch name
+            String commitID = remoteEnd.branchHead(remoteBranchName);
+            if (commitID == null) {
+                printAndExit("That remote does not have that branch.");
+            }
+            Set<String> shallowIDs = readShallowIDs();
+            List<Commit> commits = remoteEnd.fetch(commitID, getBranchHeadIDs(), shallowIDs, depth, withBlobs);
+            updateShallowIDs(shallowIDs, commits);
+            promisor().promise(remoteName, remoteEnd.getAbsentBlobIDs());
+            String trackingBranchName = remoteName + "\\" + remoteBranchName;
+            String oldID = extractBranchThenGetCommitID(trackingBranchName);
+            updateBranch(trackingBranchName, oldID, commitID);
         }
-        File remoteDir = remote.getRemoteDir();
-        Pointer branch = readObject(join(remoteDir, "branch", remoteBranchName), Pointer.class);
-        Commit commit = readObject(join(remoteDir, "commits", branch.getCommitID()), Commit.class);
-        fetchHelper(remoteDir, commit);
-        saveBranch(remoteName + "\\" + remoteBranchName, branch.getCommitID());
     }
 
     public static void pull(String remoteName, String remoteBranchName) {
@@ -293,46 +328,36 @@ public class Repository {
         merge(remoteName + "/" + remoteBranchName);
     }
 
+    public static void repack() {
+        PackObjectStore store = new PackObjectStore(GITLET_DIR);
+        store.repack();
+        objectStore = new PromisorObjectStore(GITLET_DIR, store);
+    }
+
     /** The helper methods */
     public static void setupPersistence(String msg) {
         // Create the file system (directories and folders)
         GITLET_DIR.mkdir();
         COMMITS_FOLDER.mkdir();
         BLOB_FOLDER.mkdir();
-        ADDITION_FOLDER.mkdir();
-        REMOVED_FOLDER.mkdir();
-        BRANCH_FOLDER.mkdir();
         REMOTE_FOLDER.mkdir();
+        PACK_FOLDER.mkdir();
 
         // Create the initial commit
         Commit initCommit = makeCommitWithInit(msg);
         String initCommitID = initCommit.getCommitID();
 
         // Create HEAD and master
-        saveActiveBranch(MASTERNAME, initCommitID);
+        updateBranch(MASTERNAME, null, initCommitID);
         saveHEAD(MASTERNAME, initCommitID);
     }
 
     private static boolean hasFileNameInCWD(String fileName) {
-        for (String workingFileName : plainFilenamesIn(CWD)) {
-            if (workingFileName.equals(fileName)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    public static boolean comparedCommitsAndWorking(String workingFileID) {
-        for (Blob blob : getCurrentCommit().getBlobs()) {
-            if (workingFileID.equals(blob.getCopiedFileID())) {
-                return true;
-            }
-        }
-        return false;
+        return join(CWD, fileName).isFile();
     }
 
     private static void commitHelper(String message, boolean afterMerge, String branchName) {
-        if (plainFilenamesIn(ADDITION_FOLDER).size() == 0 && plainFilenamesIn(REMOVED_FOLDER).size() == 0) {
+        if (staging().isEmpty()) {
             printAndExit("No changes added to the commit.");
         }
 
@@ -373,41 +398,18 @@ public class Repository {
         }
 
         String commitID = commit.getCommitID();
-        saveObj(COMMITS_FOLDER, commitID, commit);
+        saveCommit(objects(), commit);
+        commitGraph().add(List.of(commit));
+        messageIndex().add(List.of(commit));
 
         if (!isInit) {
+            // The branch must still be where the commit was made from
             String activeBranchName = extractHEADThenGetActiveBranchName();
-            saveActiveBranch(activeBranchName, commitID);
+            updateBranch(activeBranchName, commit.getParentIDs().get(0), commitID);
         }
         return commit;
     }
 
-    private static void printCommitLogInActiveBranch(Commit commit) {
-        if (commit == null) {
-            return;
-        }
-        printCommitLog(commit);
-        List<String> parentIDs = commit.getParentIDs();
-        if (parentIDs.size() > 0) {
-            Commit parentCommit = readObject(join(COMMITS_FOLDER, parentIDs.get(0)), Commit.class);
-            printCommitLogInActiveBranch(parentCommit);
-        }
-    }
-
-    private static void printCommitLog(Commit commit) {
-        System.out.println("===");
-        System.out.println("commit " + commit.getCommitID());
-        List<String> parentIDs = commit.getParentIDs();
-        if (parentIDs.size() == 2) {
-            System.out.println("Merge: " + parentIDs.get(0).substring(0, 7) + " "
-                    + parentIDs.get(1).substring(0, 7));
-        }
-        SimpleDateFormat dateFormat = new SimpleDateFormat("E MMM dd HH:mm:ss yyyy Z");
-        System.out.println("Date: " + dateFormat.format(commit.getDate()));
-        System.out.println(commit.getMessage());
-        System.out.println();
-    }
-
     private static Date getDate(boolean isInit) {
         if (isInit) {
             return new Date(0); // get the epoch time
@@ -436,20 +438,17 @@ public class Repository {
         return parentIDs;
     }
 
+    // The emptied staging area goes in the same journal commit as the ref that consumed it
     public static void cleanStaging() {
-        for (String fileName : plainFilenamesIn(ADDITION_FOLDER)) {
-            unrestrictedDelete(join(ADDITION_FOLDER, fileName));
-        }
-        for (String fileName : plainFilenamesIn(REMOVED_FOLDER)) {
-            unrestrictedDelete(join(REMOVED_FOLDER, fileName));
-        }
+        staging().clear();
+        staging().save();
     }
 
     /** The helper methods for the status command. */
     private static void printStatus() {
         System.out.println("=== Branches ===");
         String activeBranchName = extractHEADThenGetActiveBranchName();
-        for (String branchFileName : plainFilenamesIn(BRANCH_FOLDER)) {
+        for (String branchFileName : branchNames()) {
             if (activeBranchName.equals(branchFileName)) {
                 System.out.println("*" + branchFileName);
             } else {
@@ -458,12 +457,12 @@ public class Repository {
         }
         System.out.println();
         System.out.println("=== Staged Files ===");
-        for (String stagingFileName : plainFilenamesIn(ADDITION_FOLDER)) {
+        for (String stagingFileName : staging().getAdditions().keySet()) {
             System.out.println(stagingFileName);
         }
         System.out.println();
         System.out.println("=== Removed Files ===");
-        for (String removedFileName : plainFilenamesIn(REMOVED_FOLDER)) {
+        for (String removedFileName : staging().getRemovals().keySet()) {
             System.out.println(removedFileName);
         }
         System.out.println();
@@ -476,84 +475,75 @@ public class Repository {
     }
 
     private static void printModificationsNotStagedForCommit() {
-        Commit currentCommit = getCurrentCommit();
-        boolean trackedCurrentCommit = false;
-        boolean stagedForAddition = false;
-        boolean changedFromCommit = true;
-        boolean changedFromAddition = true;
-
-        for (String workingFileName : plainFilenamesIn(CWD)) {
-            String workingFileID = getFileID(join(CWD, workingFileName));
-
+        // Only tracked and staged files can be modified or deleted, so the working tree is not walked
+        Map<String, String> additions = staging().getAdditions();
+        Set<String> removedFileNames = staging().getRemovals().keySet();
+        Map<String, String> trackedFileIDs = getTrackedFileIDs(getCurrentCommit());
+        Set<String> candidates = new TreeSet<>(trackedFileIDs.keySet());
+        candidates.addAll(additions.keySet());
+        Set<String> missingFileNames = new HashSet<>();
+
+        for (String workingFileName : candidates) {
+            if (!hasFileNameInCWD(workingFileName)) {
+                missingFileNames.add(workingFileName);
+                continue;
+            }
+            String stagedBlobID = additions.get(workingFileName);
             // Tracked in the current commit, changed in the working directory, but not staged
-            for (Blob blob : currentCommit.getBlobs()) {
-                if (blob.getCopiedFileName().equals(workingFileName)) {
-                    trackedCurrentCommit = true;
-                    if (blob.getCopiedFileID().equals(workingFileID)) {
-                        changedFromCommit = false;
-                    }
-                    break;
+            if (stagedBlobID == null) {
+                String trackedFileID = trackedFileIDs.get(workingFileName);
+                if (trackedFileID != null && !trackedFileID.equals(getWorkingFileID(workingFileName))) {
+                    System.out.println(workingFileName + " (modified)");
                 }
+                continue;
             }
-
             // Staged for addition, but with different contents than in the working directory
-            for (String fileName : plainFilenamesIn(ADDITION_FOLDER)) {
-                if (fileName.equals(workingFileName)) {
-                    stagedForAddition = true;
-                    String fileID = getFileID(join(ADDITION_FOLDER, fileName));
-                    if (fileID.equals(workingFileID)) {
-                        changedFromAddition = false;
-                    }
-                    break;
-                }
-            }
-
-            if (trackedCurrentCommit && changedFromCommit && !stagedForAddition) {
-                System.out.println(workingFileName + " (modified)");
-            }
-            if (stagedForAddition && changedFromAddition) {
+            if (!staging().isStagedAsIs(workingFileName, join(CWD, workingFileName))
+                    && !getFileID(workingFileName, stagedBlobID).equals(getWorkingFileID(workingFileName))) {
                 System.out.println(workingFileName + " (modified)");
             }
         }
 
         // Staged for addition, but deleted in the working directory
-        for (String fileName : plainFilenamesIn(ADDITION_FOLDER)) {
-            if (!plainFilenamesIn(CWD).contains(fileName)) {
+        for (String fileName : additions.keySet()) {
+            if (missingFileNames.contains(fileName)) {
                 System.out.println(fileName + " (deleted)");
             }
         }
 
         // Not staged for removal, but tracked in the current commit and deleted from the working directory
-        for (Blob blob : currentCommit.getBlobs()) {
-            String blobCopiedFileName = blob.getCopiedFileName();
-            if (!plainFilenamesIn(REMOVED_FOLDER).contains(blobCopiedFileName)
-                    && !plainFilenamesIn(CWD).contains(blobCopiedFileName)) {
-                System.out.println(blobCopiedFileName + " (deleted)");
+        for (String trackedFileName : trackedFileIDs.keySet()) {
+            if (!removedFileNames.contains(trackedFileName)
+                    && missingFileNames.contains(trackedFileName)) {
+                System.out.println(trackedFileName + " (deleted)");
             }
         }
     }
 
     private static void printUntrackedFiles() {
-        // Files present in the working directory but neither staged for addition nor tracked
-        boolean isSameName = false;
-        for (String workingFileName : plainFilenamesIn(CWD)) {
-            // 1. Compared with the files in current commit
-            for (String fileName : getCurrentCommit().getCopiedFileNames()) {
-                if (fileName.equals(workingFileName)) {
-                    isSameName = true;
-                }
-            }
-            // 2. Compared with the files in the ADDITION_FOLDER
-            if (plainFilenamesIn(ADDITION_FOLDER).contains(workingFileName)) {
-                isSameName = true;
-            }
-
-            if (!isSameName) {
+        // Files present in the working directory but neither staged for addition nor tracked,
+        // including files staged for removal but then re-created
+        Set<String> trackedFileNames = getCurrentCommit().getFiles().keySet();
+        Set<String> additionFileNames = staging().getAdditions().keySet();
+        Set<String> removedFileNames = staging().getRemovals().keySet();
+        for (String workingFileName : workingFiles()) {
+            boolean tracked = trackedFileNames.contains(workingFileName)
+                    && !removedFileNames.contains(workingFileName);
+            if (!tracked && !additionFileNames.contains(workingFileName)) {
                 System.out.println(workingFileName);
             }
         }
     }
 
+    // Map the name of every file tracked in the commit to its file id
+    private static Map<String, String> getTrackedFileIDs(Commit commit) {
+        Map<String, String> trackedFileIDs = new TreeMap<>();
+        for (Map.Entry<String, String> file : commit.getFiles().entrySet()) {
+            trackedFileIDs.put(file.getKey(), getFileID(file.getKey(), file.getValue()));
+        }
+        return trackedFileIDs;
+    }
+
     /** The helper methods for the checkout command. */
     private static void checkoutWithFileName(String fileName) {
         checkoutHelper(getCurrentCommit(), fileName);
@@ -562,47 +552,33 @@ public class Repository {
     private static void checkoutWithBranchName(String branchName) {
         branchName = convertRemoteBranchName(branchName);
         // If no branch with that name exists
-        List<String> branchNames = plainFilenamesIn(BRANCH_FOLDER);
-        if (!branchNames.contains(branchName)) {
+        if (!hasBranch(branchName)) {
             printAndExit("No such branch exists.");
         }
         // If that branch is the current branch
         if (extractHEADThenGetActiveBranchName().equals(branchName)) {
             printAndExit("No need to checkout the current branch.");
         }
-        String commitID = readObject(join(BRANCH_FOLDER, branchName), Pointer.class).getCommitID();
-        Commit branchCommit = readObject(join(COMMITS_FOLDER, commitID), Commit.class);
+        String commitID = extractBranchThenGetCommitID(branchName);
+        Commit branchCommit = readCommit(commitID);
         // If a working file is untracked in the current branch and would be overwritten by the checkout
         checkUntrackedFileError();
 
         // Takes all files in the commit at the head of the given branch,
         // and puts them in the working directory,
         // overwriting the versions of the files that are already there if they exist.
-        // 1. Delete all files in the CWD
-        for (String name : plainFilenamesIn(CWD)) {
-            restrictedDelete(name);
-        }
-        // 2. Checkout all copiedFiles in the commit
-        for (String copiedFileName : branchCommit.getCopiedFileNames()) {
-            checkoutHelper(branchCommit, copiedFileName);
-        }
+        // Only the files that differ between the two commits are touched
+        new Checkout(getCurrentCommit(), branchCommit).run();
         // Also, at the end of this command, the given branch will now be considered the current branch (HEAD).
         saveHEAD(branchName, commitID);
     }
 
     private static void checkoutWithCommitIDAndFileName(String commitID, String fileName) {
-        if (commitID.length() == 8) {
-            for (String id : plainFilenamesIn(COMMITS_FOLDER)) {
-                if (id.substring(0, 8).equals(commitID)) {
-                    commitID = id;
-                    break;
-                }
-            }
-        }
+        commitID = resolveCommitID(commitID);
 
         // If no commit with the given id exists
-        checkNotExistSameFileInFolder(commitID, COMMITS_FOLDER, "No commit with that id exists.");
-        Commit commit = readObject(join(COMMITS_FOLDER, commitID), Commit.class);
+        checkNotExistCommit(commitID, "No commit with that id exists.");
+        Commit commit = readCommit(commitID);
         // If the file does not exist in the given commit
         checkNotExistSameFileInCommit(fileName, commit, "File does not exist in that commit.");
         checkoutHelper(commit, fileName);
@@ -610,13 +586,11 @@ public class Repository {
 
     private static void checkoutHelper(Commit commit, String fileName) {
         // Find the file in the commit
-        for (Blob blob : commit.getBlobs()) {
-            if (fileName.equals(blob.getCopiedFileName())) {
-                // Put the file in the CWD or overwrite the old version
-                String content = blob.getCopiedFileContent();
-                saveContent(CWD, fileName, content);
-                return;
-            }
+        Blob blob = commit.getBlob(fileName);
+        if (blob != null) {
+            // Put the file in the CWD or overwrite the old version
+            blob.writeTo(join(CWD, fileName));
+            return;
         }
 
         // If the file does not in the commit
@@ -633,82 +607,39 @@ public class Repository {
 
     /** The helper methods for the merge command. */
     private static Commit getSplitCommit(String branchName) {
-        // Mark the current (head) branch
-        Commit headCommit = getCurrentCommit();
-        markBranch(headCommit, 0);
-        // Get and mark the other branch commit
+        String headCommitID = getCurrentCommit().getCommitID();
         String otherCommitID = extractBranchThenGetCommitID(branchName);
-        Commit otherCommit = readObject(join(COMMITS_FOLDER, otherCommitID), Commit.class);
-        markBranch(otherCommit, 0);
-        // Get the smallest split commit
-        Commit splitCommit = readObject(join(COMMITS_FOLDER, getInitCommitID()), Commit.class);
-        int splitDistance = splitCommit.getDistance();
-        for (String commitID : plainFilenamesIn(COMMITS_FOLDER)) {
-            Commit commit = readObject(join(COMMITS_FOLDER, commitID), Commit.class);
-            if (commit.getMarkedCount() == 2 && commit.getDistance() < splitDistance) {
-                splitCommit = commit;
-                splitDistance = commit.getDistance();
-            }
-        }
-        // Reset marked count and distance in all commits
-        for (String commitID : plainFilenamesIn(COMMITS_FOLDER)) {
-            Commit commit = readObject(join(COMMITS_FOLDER, commitID), Commit.class);
-            commit.resetMarkedCount();
-            commit.resetDistance();
-            saveObj(COMMITS_FOLDER, commit.getCommitID(), commit);
-        }
-        return splitCommit;
-    }
-
-    private static void markBranch(Commit branchCommit, int distance) {
-        branchCommit.updatedMarkedCount();
-        branchCommit.updatedDistance(distance);
-        saveObj(COMMITS_FOLDER, branchCommit.getCommitID(), branchCommit);
-        distance += 1;
-        for (String parentID : branchCommit.getParentIDs()) {
-            branchCommit = readObject(join(COMMITS_FOLDER, parentID), Commit.class);
-            markBranch(branchCommit, distance);
+        String splitCommitID = commitGraph().mergeBase(headCommitID, otherCommitID);
+        // A shallow fetch can stop the history before the branches meet
+        if (splitCommitID == null) {
+            printAndExit("History stops at a shallow fetch before a split point; fetch with a greater --depth.");
         }
+        return readCommit(splitCommitID);
     }
 
     public static void mergeHelper(Commit split, Commit other) {
         Commit head = getCurrentCommit();
         Set<String> allFileNames = getAllFileNames(split, head, other);
         rulesDealFiles(split, head, other, allFileNames);
+        staging().save();
     }
 
     private static void rulesDealFiles(Commit split, Commit head, Commit other, Set<String> allFileNames) {
-        List<String> fileNamesInSplit = split.getCopiedFileNames();
-        List<String> fileNamesInHead = head.getCopiedFileNames();
-        List<String> fileNamesInOther = other.getCopiedFileNames();
+        Map<String, String> splitFiles = split.getFiles();
+        Map<String, String> headFiles = head.getFiles();
+        Map<String, String> otherFiles = other.getFiles();
+        Set<String> fileNamesInSplit = splitFiles.keySet();
+        Set<String> fileNamesInHead = headFiles.keySet();
+        Set<String> fileNamesInOther = otherFiles.keySet();
+        List<String> modifiedInBoth = new ArrayList<>();
 
         for (String fileName : allFileNames) {
-            String fileIDInHead = null;
-            String fileIDInOther = null;
-            String fileIDInSplit = null;
-            Blob headBlob = null;
-            Blob otherBlob = null;
-            // Get head blob with fileID and other blob with file ID
-            for (Blob blob : head.getBlobs()) {
-                if (blob.getCopiedFileName().equals(fileName)) {
-                    headBlob = blob;
-                    fileIDInHead = blob.getCopiedFileID();
-                    break;
-                }
-            }
-            for (Blob blob : other.getBlobs()) {
-                if (blob.getCopiedFileName().equals(fileName)) {
-                    otherBlob = blob;
-                    fileIDInOther = blob.getCopiedFileID();
-                    break;
-                }
-            }
-            for (Blob blob : split.getBlobs()) {
-                if (blob.getCopiedFileName().equals(fileName)) {
-                    fileIDInSplit = blob.getCopiedFileID();
-                    break;
-                }
-            }
+            // Within one file name, equal blob ids mean equal file ids
+            String fileIDInHead = headFiles.get(fileName);
+            String fileIDInOther = otherFiles.get(fileName);
+            String fileIDInSplit = splitFiles.get(fileName);
+            Blob headBlob = fileIDInHead == null ? null : new Blob(objects(), fileName, fileIDInHead);
+            Blob otherBlob = fileIDInOther == null ? null : new Blob(objects(), fileName, fileIDInOther);
 
             boolean isHeadModified = (fileIDInHead != null) && (!fileIDInHead.equals(fileIDInSplit));
             boolean isOtherModified = (fileIDInOther != null) && (!fileIDInOther.equals(fileIDInSplit));
@@ -716,29 +647,25 @@ public class Repository {
             if (fileNamesInSplit.contains(fileName) && fileNamesInHead.contains(fileName) && fileNamesInOther.contains(fileName)) {
                 // 1. Modified in other but not head -> stage the file for addition and put it to the cwd
                 if (isOtherModified && !isHeadModified) {
-                    saveWorkingFile(fileName, otherBlob.getCopiedFileContent());
-                    saveAdditionFile(fileName, otherBlob.getCopiedFileContent());
+                    stageBlobForAddition(fileName, otherBlob);
                     continue;
                 }
                 // 2. Modified in head but not other -> stage the file for addition and put it to the cwd
                 if (isHeadModified && !isOtherModified) {
-                    saveWorkingFile(fileName, headBlob.getCopiedFileContent());
-                    saveAdditionFile(fileName, headBlob.getCopiedFileContent());
+                    stageBlobForAddition(fileName, headBlob);
                     continue;
                 }
             }
 
             // 5. Neither in split nor other but in head -> stage file from head for addition
             if (!fileNamesInSplit.contains(fileName) && !fileNamesInOther.contains(fileName) && fileNamesInHead.contains(fileName)) {
-                saveWorkingFile(fileName, headBlob.getCopiedFileContent());
-                saveAdditionFile(fileName, headBlob.getCopiedFileContent());
+                stageBlobForAddition(fileName, headBlob);
                 continue;
             }
 
             // 6. Neither in split nor head but in other -> stage file from other for addition
             if (!fileNamesInSplit.contains(fileName) && !fileNamesInHead.contains(fileName) && fileNamesInOther.contains(fileName)) {
-                saveWorkingFile(fileName, otherBlob.getCopiedFileContent());
-                saveAdditionFile(fileName, otherBlob.getCopiedFileContent());
+                stageBlobForAddition(fileName, otherBlob);
                 continue;
             }
 
@@ -746,11 +673,9 @@ public class Repository {
             // 7b. Modified in head but not present in other -> conflict
             if (fileNamesInSplit.contains(fileName) && fileNamesInHead.contains(fileName) && !fileNamesInOther.contains(fileName)) {
                 if (!isHeadModified) {
-                    saveRemovedFile(fileName, headBlob.getCopiedFileContent());
+                    staging().stageRemoval(fileName, fileIDInHead);
                     // delete it in working
-                    if (hasFileNameInCWD(fileName)) {
-                        restrictedDelete(join(CWD, fileName));
-                    }
+                    deleteWorkingFile(fileName);
                 } else {
                     makeConflictFile(fileName, headBlob.getCopiedFileContent(), "");
                 }
@@ -761,11 +686,9 @@ public class Repository {
             // 8b. Modified in other but not present in head -> conflict
             if (fileNamesInSplit.contains(fileName) && fileNamesInOther.contains(fileName) && !fileNamesInHead.contains(fileName)) {
                 if (!isOtherModified) {
-                    saveRemovedFile(fileName, otherBlob.getCopiedFileContent());
+                    staging().stageRemoval(fileName, fileIDInOther);
                     // delete it in working
-                    if (hasFileNameInCWD(fileName)) {
-                        restrictedDelete(join(CWD, fileName));
-                    }
+                    deleteWorkingFile(fileName);
                 } else {
                     makeConflictFile(fileName, "", otherBlob.getCopiedFileContent());
                 }
@@ -776,28 +699,99 @@ public class Repository {
                 if (isOtherModified && isHeadModified) {
                     // 3. Modified in head and other in the same way -> stage file from head/other for addition and put it to the cwd
                     if (fileIDInHead.equals(fileIDInOther)) {
-                        saveWorkingFile(fileName, headBlob.getCopiedFileContent());
-                        saveAdditionFile(fileName, headBlob.getCopiedFileContent());
-                        // 4. Modified in head and other in different ways -> Store conflict file to cwd and addition folder
+                        stageBlobForAddition(fileName, headBlob);
+                        // 4. Modified in head and other in different ways -> merge the contents line by line
                     } else {
-                        makeConflictFile(fileName, headBlob.getCopiedFileContent(), otherBlob.getCopiedFileContent());
+                        modifiedInBoth.add(fileName);
                     }
                 }
             }
         }
+        mergeContents(modifiedInBoth, splitFiles, headFiles, otherFiles);
+    }
+
+    // Merge files changed on both sides in parallel, then stage the results in file name order
+    private static void mergeContents(List<String> fileNames, Map<String, String> splitFiles,
+                                      Map<String, String> headFiles, Map<String, String> otherFiles) {
+        long start = System.nanoTime();
+        ObjectStore store = objects();
+        Map<String, Merge> merges = new ConcurrentHashMap<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (String fileName : fileNames) {
+            tasks.add(() -> {
+                String base = getContentsOrEmpty(store, fileName, splitFiles.get(fileName));
+                String head = getContentsOrEmpty(store, fileName, headFiles.get(fileName));
+                String other = getContentsOrEmpty(store, fileName, otherFiles.get(fileName));
+                merges.put(fileName, Merge.merge(base, head, other));
+                return null;
+            });
+        }
+        runInParallel(tasks, MIN_PARALLEL_MERGES);
+
+        int conflicts = 0;
+        for (String fileName : fileNames) {
+            Merge merge = merges.get(fileName);
+            saveWorkingFile(fileName, merge.getText());
+            saveAdditionFile(fileName);
+            if (merge.isConflicted()) {
+                conflicts += 1;
+                System.out.println("Encountered a merge conflict.");
+            }
+        }
+        if (!fileNames.isEmpty()) {
+            Stats.report("merge: %d files merged by line, %d with conflicts in %.1f ms",
+                    fileNames.size(), conflicts, (System.nanoTime() - start) / 1e6);
+        }
     }
 
-    private static Set<String> getAllFileNames(Commit split, Commit head, Commit other) {
-        Set<String> fileNames = new HashSet<>();
-        for (String fileName : split.getCopiedFileNames()) {
-            fileNames.add(fileName);
-        }
-        for (String fileName : head.getCopiedFileNames()) {
-            fileNames.add(fileName);
+    /** The helper methods for the diff command. */
+    private static Commit readExistingCommit(String commitID) {
+        commitID = resolveCommitID(commitID);
+        checkNotExistCommit(commitID, "No commit with that id exists.");
+        return readCommit(commitID);
+    }
+
+    // Only files whose blob ids differ are read; leaves both trees share are not even opened
+    private static void diffCommits(Commit a, Commit b, Writer out) throws IOException {
+        ObjectStore store = objects();
+        Map<String, String> oldIDs = Tree.diff(store, b.getTree(), a.getTree());
+        for (Map.Entry<String, String> change : Tree.diff(store, a.getTree(), b.getTree()).entrySet()) {
+            String fileName = change.getKey();
+            Diff.writeUnified(out, fileName, getContentsOrNull(store, fileName, oldIDs.get(fileName)),
+                    getContentsOrNull(store, fileName, change.getValue()));
         }
-        for (String fileName : other.getCopiedFileNames()) {
-            fileNames.add(fileName);
+    }
+
+    // Diff the working files against FILES (name -> blob id)
+    private static void diffWorkingFiles(Map<String, String> files, Writer out) throws IOException {
+        ObjectStore store = objects();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            String fileName = file.getKey();
+            File workingFile = join(CWD, fileName);
+            boolean exists = workingFile.isFile();
+            // The stat index tells clean files apart without reading them
+            if (exists && getWorkingFileID(fileName).equals(getFileID(fileName, file.getValue()))) {
+                continue;
+            }
+            Diff.writeUnified(out, fileName, getContentsOrNull(store, fileName, file.getValue()),
+                    exists ? readContentsAsString(workingFile) : null);
         }
+        workingIndex().save();
+    }
+
+    private static String getContentsOrNull(ObjectStore store, String fileName, String blobID) {
+        return blobID == null ? null : new Blob(store, fileName, blobID).getCopiedFileContent();
+    }
+
+    private static String getContentsOrEmpty(ObjectStore store, String fileName, String blobID) {
+        return blobID == null ? "" : new Blob(store, fileName, blobID).getCopiedFileContent();
+    }
+
+    private static Set<String> getAllFileNames(Commit split, Commit head, Commit other) {
+        Set<String> fileNames = new TreeSet<>();
+        fileNames.addAll(split.getFiles().keySet());
+        fileNames.addAll(head.getFiles().keySet());
+        fileNames.addAll(other.getFiles().keySet());
         return fileNames;
     }
 
@@ -808,7 +802,7 @@ public class Repository {
                 + fileContentsFromOther
                 + ">>>>>>>" + "\n";
         saveWorkingFile(fileName, contents);
-        saveAdditionFile(fileName, contents);
+        saveAdditionFile(fileName);
         System.out.println("Encountered a merge conflict.");
     }
 
@@ -827,72 +821,74 @@ public class Repository {
     }
 
     /** The helper methods for the push command. */
-    /** Push all commits and blobs from remote repo by recursion. */
-    private static void pushHelper(File remoteDir, Commit commit, String remoteHeadID) {
-        String commitID = commit.getCommitID();
-        File remoteCommitsFolder = join(remoteDir, "commits");
-        if (commitID.equals(remoteHeadID) || plainFilenamesIn(remoteCommitsFolder).contains(commitID)) {
-            return;
-        }
-        // Save commit
-        if (!plainFilenamesIn(remoteCommitsFolder).contains(commitID)) {
-            saveObj(remoteCommitsFolder, commitID, commit);
-        }
-        // Save blobs with comparing
-        for (String blobID : commit.getBlobIDs()) {
-            Blob blob = readObject(join(BLOB_FOLDER, getDirID(blobID), blobID), Blob.class);
-            saveDirAndObjInBlobs(blob, join(remoteDir, "blobs"), blob.getBlobID());
-        }
-        // Push from parent commits
-        for (String parentID : commit.getParentIDs()) {
-            Commit parentCommit = readObject(join(COMMITS_FOLDER, parentID), Commit.class);
-            pushHelper(remoteDir, parentCommit, remoteHeadID);
-        }
-    }
-
     private static boolean isRemoteHeadIDInHistoryOfLocal(String remoteHeadID, Commit commit) {
-        boolean isInHistoryOfLocal = commit.getCommitID().equals(remoteHeadID);
-        // Check parent commits
-        for (String parentID : commit.getParentIDs()) {
-            Commit parentCommit = readObject(join(COMMITS_FOLDER, parentID), Commit.class);
-            return isInHistoryOfLocal || isRemoteHeadIDInHistoryOfLocal(remoteHeadID, parentCommit);
-        }
-        return isInHistoryOfLocal;
+        return commitGraph().isAncestor(remoteHeadID, commit.getCommitID());
     }
 
-    // Save or change a branch in remote
-    public static void saveRemoteBranch(File remoteDir, String branchName, String commitID) {
-        Pointer branch = new Pointer(false, branchName, commitID);
-        saveObj(join(remoteDir, "branch"), branchName, branch);
+    /** The helper methods for the fetch command. */
+    // The commits every local branch points at, which the remote need not send again
+    private static List<String> getBranchHeadIDs() {
+        List<String> headIDs = new LinkedList<>();
+        for (String branchName : branchNames()) {
+            headIDs.add(extractBranchThenGetCommitID(branchName));
+        }
+        return headIDs;
     }
 
-    // Save or change HEAD in remote
-    public static void saveRemoteHEAD(File remoteDir, String activeBranchName, String initCommitID) {
-        Pointer head = new Pointer(true, activeBranchName, initCommitID);
-        saveObj(remoteDir, activeBranchName, head);
+    // The commits where a shallow history stops
+    private static Set<String> readShallowIDs() {
+        Set<String> shallowIDs = new TreeSet<>();
+        if (!plainFilenamesIn(GITLET_DIR).contains(SHALLOW_FILE.getName())) {
+            return shallowIDs;
+        }
+        Codec.Decoder in = new Codec.Decoder(readContents(SHALLOW_FILE), Codec.Type.SHALLOW);
+        for (int n = in.readVarint(); n > 0; n -= 1) {
+            shallowIDs.add(in.readID());
+        }
+        in.end();
+        return shallowIDs;
     }
 
-    /** The helper methods for the fetch command. */
-    /** Fetch all commits and blobs from remote repo by recursion. */
-    private static void fetchHelper(File remoteDir, Commit commit) {
-        String commitID = commit.getCommitID();
-        if (commit == null || plainFilenamesIn(COMMITS_FOLDER).contains(commitID)) {
-            return;
+    // Add the fetched COMMITS whose parents did not come to SHALLOWIDS, and drop the commits
+    // whose parents came at last, which the commit graph took for roots until now
+    private static void updateShallowIDs(Set<String> shallowIDs, List<Commit> commits) {
+        boolean deepened = false;
+        for (Iterator<String> it = shallowIDs.iterator(); it.hasNext(); ) {
+            if (hasAllParents(readCommit(it.next()))) {
+                it.remove();
+                deepened = true;
+            }
+        }
+        boolean changed = deepened;
+        for (Commit commit : commits) {
+            if (!hasAllParents(commit)) {
+                changed |= shallowIDs.add(commit.getCommitID());
+            }
+        }
+        if (deepened) {
+            commitGraph = CommitGraph.rebuild(GITLET_DIR, objects());
         }
-        // Save commit
-        if (!plainFilenamesIn(COMMITS_FOLDER).contains(commitID)) {
-            saveObj(COMMITS_FOLDER, commitID, commit);
+        if (!changed) {
+            return;
+        } else if (shallowIDs.isEmpty()) {
+            unrestrictedDelete(SHALLOW_FILE);
+            return;
         }
-        // Save blobs with comparing
-        for (String blobID : commit.getBlobIDs()) {
-            Blob blob = readObject(join(remoteDir, "blobs", getDirID(blobID), blobID), Blob.class);
-            saveDirAndObjInBlobs(blob, BLOB_FOLDER, blob.getBlobID());
+        Codec.Encoder out = new Codec.Encoder(Codec.Type.SHALLOW, 8 + shallowIDs.size() * UID_LENGTH / 2);
+        out.writeVarint(shallowIDs.size());
+        for (String commitID : shallowIDs) {
+            out.writeID(commitID);
         }
-        // Fetch from parent commits
+        writeContents(SHALLOW_FILE, out.toByteArray());
+    }
+
+    private static boolean hasAllParents(Commit commit) {
         for (String parentID : commit.getParentIDs()) {
-            Commit parentCommit = readObject(join(remoteDir, "commits", parentID), Commit.class);
-            fetchHelper(remoteDir, parentCommit);
+            if (!objects().contains(parentID)) {
+                return false;
+            }
         }
+        return true;
     }
 
     private static void validateRemoteDir(Remote remote) {
@@ -902,88 +898,274 @@ public class Repository {
     }
 
     /** The helper methods for checking the errors. */
-    private static void checkNotExistSameFileInFolder(String fileName, File folder, String message) {
-        if (!plainFilenamesIn(folder).contains(fileName)) {
+    private static void checkNotExistBranch(String branchName, String message) {
+        if (!hasBranch(branchName)) {
             printAndExit(message);
         }
     }
 
-    private static void checkExistSameFileInFolder(String fileName, File folder, String message) {
-        for (String name : plainFilenamesIn(folder)) {
-            if (name.equals(fileName)) {
-                printAndExit(message);
+    // Expand an abbreviated commit id through the sorted ids of the commit graph
+    public static String resolveCommitID(String commitID) {
+        if (commitID.length() >= UID_LENGTH) {
+            return commitID;
+        }
+        List<String> matches = commitGraph().idsWithPrefix(commitID);
+        if (matches.isEmpty()) {
+            printAndExit("No commit with that id exists.");
+        }
+        if (matches.size() > 1) {
+            System.out.println("Commit id " + commitID + " is ambiguous. It could be:");
+            for (String match : matches) {
+                System.out.println(match);
             }
+            printAndExit("Use a longer prefix.");
+        }
+        return matches.get(0);
+    }
+
+    // Trees and blobs share the object store, so the id has to name a commit
+    private static void checkNotExistCommit(String commitID, String message) {
+        if (!commitGraph().contains(commitID) && !(objects().contains(commitID)
+                && Codec.isRecord(objects().get(commitID), Codec.Type.COMMIT))) {
+            printAndExit(message);
+        }
+    }
+
+    private static void checkExistBranch(String branchName, String message) {
+        if (hasBranch(branchName)) {
+            printAndExit(message);
         }
     }
 
     private static void checkNotExistSameFileInCommit(String fileName, Commit commit, String message) {
-        if (!commit.getCopiedFileNames().contains(fileName)) {
+        if (!commit.hasFile(fileName)) {
             printAndExit(message);
         }
     }
 
     private static void checkUntrackedFileError() {
-        List<String> copiedFileIDs = getCurrentCommit().getCopiedFileIDs();
-        List<String> additionFileIDs = new LinkedList<>();
-        for (String fileName : plainFilenamesIn(ADDITION_FOLDER)) {
-            additionFileIDs.add(getFileID(join(ADDITION_FOLDER, fileName)));
+        Set<String> copiedFileIDs = new HashSet<>(getTrackedFileIDs(getCurrentCommit()).values());
+        Set<String> additionFileIDs = new HashSet<>();
+        for (Map.Entry<String, String> addition : staging().getAdditions().entrySet()) {
+            additionFileIDs.add(getFileID(addition.getKey(), addition.getValue()));
         }
-        for (String workingFileName : plainFilenamesIn(CWD)) {
-            String workingFileID = getFileID(join(CWD, workingFileName));
+        for (String workingFileName : workingFiles()) {
+            String workingFileID = getWorkingFileID(workingFileName);
             if (!copiedFileIDs.contains(workingFileID) && !additionFileIDs.contains(workingFileID)) {
+                workingIndex().save();
                 printAndExit("There is an untracked file in the way; delete it, or add and commit it first.");
             }
         }
+        workingIndex().save();
     }
 
-    public static void saveAdditionFile(String fileName, String contents) {
-        saveContent(ADDITION_FOLDER, fileName, contents);
+    // Stage the working file FILENAME, just written with merged contents, for addition
+    public static void saveAdditionFile(String fileName) {
+        staging().add(fileName, join(CWD, fileName), getCurrentCommit().getBlobID(fileName));
     }
 
-    public static void saveRemovedFile(String fileName, String contents) {
-        saveContent(REMOVED_FOLDER, fileName, contents);
+    // Put a blob in the CWD and stage it for addition
+    public static void stageBlobForAddition(String fileName, Blob blob) {
+        File workingFile = join(CWD, fileName);
+        blob.writeTo(workingFile);
+        staging().stageAddition(fileName, blob.getBlobID(), workingFile);
     }
 
     public static void saveWorkingFile(String fileName, String contents) {
+        join(CWD, fileName).getParentFile().mkdirs();
         saveContent(CWD, fileName, contents);
     }
 
+    // Delete a working file, and the directories above it that it leaves empty
+    public static void deleteWorkingFile(String fileName) {
+        File file = join(CWD, fileName);
+        if (!file.isFile() || !file.delete()) {
+            return;
+        }
+        for (File dir = file.getParentFile(); !dir.equals(CWD) && dir.delete(); dir = dir.getParentFile()) {
+            continue;
+        }
+    }
+
+    // The paths of the working files that are not ignored, subdirectories included
+    public static List<String> workingFiles() {
+        return WorkingTree.list(CWD, workingIndex());
+    }
+
+    public static ObjectStore objects() {
+        return promisor();
+    }
+
+    public static PromisorObjectStore promisor() {
+        if (objectStore == null) {
+            objectStore = new PromisorObjectStore(GITLET_DIR, ObjectStore.open(GITLET_DIR));
+        }
+        return objectStore;
+    }
+
+    public static RefTable refs() {
+        if (refTable == null) {
+            refTable = RefTable.open(GITLET_DIR);
+        }
+        return refTable;
+    }
+
+    public static Index workingIndex() {
+        if (workingIndex == null) {
+            workingIndex = Index.open(GITLET_DIR);
+        }
+        return workingIndex;
+    }
+
+    public static Staging staging() {
+        if (staging == null) {
+            staging = Staging.open(GITLET_DIR);
+        }
+        return staging;
+    }
+
+    // Get the file id of a working file, using the index to skip unchanged files
+    public static String getWorkingFileID(String fileName) {
+        return workingIndex().getFileID(fileName);
+    }
+
+    // Building a missing index writes it, which a reader has to upgrade its lock for
+    public static CommitGraph commitGraph() {
+        if (commitGraph == null) {
+            if (!CommitGraph.exists(GITLET_DIR)) {
+                RepositoryLock.upgrade();
+            }
+            commitGraph = CommitGraph.open(GITLET_DIR, objects());
+        }
+        return commitGraph;
+    }
+
+    public static MessageIndex messageIndex() {
+        if (messageIndex == null) {
+            if (!MessageIndex.exists(GITLET_DIR)) {
+                RepositoryLock.upgrade();
+            }
+            MessageIndex index = MessageIndex.open(GITLET_DIR, objects());
+            // Catch up after a command that died between saving a commit and indexing it
+            if (index.size() < commitGraph().size()) {
+                RepositoryLock.upgrade();
+                index = MessageIndex.rebuild(GITLET_DIR, objects());
+            }
+            messageIndex = index;
+        }
+        return messageIndex;
+    }
+
+    public static Commit readCommit(String commitID) {
+        return readCommit(objects(), commitID);
+    }
+
+    public static Commit readCommit(ObjectStore store, String commitID) {
+        // Commits are immutable and named by their contents, so one cache serves every store
+        Commit commit = commitCache.get(commitID);
+        if (commit == null) {
+            byte[] data = store.get(commitID);
+            commit = Commit.decode(commitID, data);
+            commitCache.put(commitID, commit, data.length);
+        }
+        return commit;
+    }
+
+    // Read the HEAD pointer through the pointer cache
+    public static Pointer readPointer(File file) {
+        Pointer pointer = pointerCache.get(file);
+        if (pointer == null) {
+            byte[] data = readContents(file);
+            pointer = Pointer.decode(data);
+            pointerCache.put(file, pointer, data.length);
+        }
+        return pointer;
+    }
+
+    // Write the HEAD pointer, keeping the pointer cache in step
+    public static void writePointer(File file, Pointer pointer) {
+        byte[] data = pointer.encode();
+        writeContents(file, data);
+        pointerCache.put(file, pointer, data.length);
+    }
+
+    // Drop the state read from .gitlet, for when another process has changed it.
+    // Commits and trees are named by their contents, so their caches stay valid.
+    public static void resetCaches() {
+        objectStore = null;
+        commitGraph = null;
+        messageIndex = null;
+        refTable = null;
+        workingIndex = null;
+        staging = null;
+        pointerCache.clear();
+    }
+
+    // Print the hit and miss counts of the object caches
+    public static void reportCacheStats() {
+        Stats.report(commitCache.stats());
+        Stats.report(Tree.cacheStats());
+        Stats.report(Blob.cacheStats());
+        Stats.report(pointerCache.stats());
+    }
+
+    public static void saveCommit(ObjectStore store, Commit commit) {
+        store.put(commit.getCommitID(), ObjectStore.Type.COMMIT, commit.encode());
+    }
+
     public static Commit getCurrentCommit() {
         String activeBranchName = extractHEADThenGetActiveBranchName();
         String currentCommitID = extractActiveBranchThenGetCurrentCommitID(activeBranchName);
-        Commit currentCommit = readObject(join(COMMITS_FOLDER, currentCommitID), Commit.class);
+        Commit currentCommit = readCommit(currentCommitID);
         return currentCommit;
     }
 
     public static String getInitCommitID() {
-        Pointer head = readObject(join(GITLET_DIR, HEADNAME), Pointer.class);
+        Pointer head = readPointer(join(GITLET_DIR, HEADNAME));
         return head.getInitCommitID();
     }
 
     public static String extractHEADThenGetActiveBranchName() {
-        Pointer head = readObject(join(GITLET_DIR, HEADNAME), Pointer.class);
+        Pointer head = readPointer(join(GITLET_DIR, HEADNAME));
         return head.getActiveBranchName();
     }
 
     public static String extractActiveBranchThenGetCurrentCommitID(String activeBranchName) {
-        Pointer activeBranch = readObject(join(BRANCH_FOLDER, activeBranchName), Pointer.class);
-        return activeBranch.getCommitID();
+        return extractBranchThenGetCommitID(activeBranchName);
     }
 
+    // The head commit id of BRANCHNAME, or null if there is no such branch, counting this command's changes
     public static String extractBranchThenGetCommitID(String branchName) {
-        Pointer branch = readObject(join(BRANCH_FOLDER, branchName), Pointer.class);
-        return branch.getCommitID();
+        File branchFile = join(BRANCH_FOLDER, branchName);
+        if (Journal.isPending(branchFile)) {
+            byte[] data = Journal.read(branchFile);
+            return data == null ? null : Pointer.decode(data).getCommitID();
+        }
+        return refs().get(branchName);
+    }
+
+    public static boolean hasBranch(String branchName) {
+        return extractBranchThenGetCommitID(branchName) != null;
     }
 
-    public static void saveActiveBranch(String branchName, String commitID) {
-        saveBranch(branchName, commitID);
+    // The names of all branches, sorted, counting this command's changes
+    public static List<String> branchNames() {
+        return Journal.list(BRANCH_FOLDER, refs().names());
     }
 
-    public static void saveBranch(String branchName, String commitID) {
-        Pointer branch = new Pointer(false, branchName, commitID);
+    // Move BRANCHNAME from OLDID (null: a new branch) to NEWID, if no other command moved it first
+    public static void updateBranch(String branchName, String oldID, String newID) {
+        Journal.expect(join(BRANCH_FOLDER, branchName), oldID);
+        Pointer branch = new Pointer(false, branchName, newID);
         branch.saveBranchFile();
     }
 
+    // Delete BRANCHNAME, if it still points at OLDID
+    public static void deleteBranch(String branchName, String oldID) {
+        Journal.expect(join(BRANCH_FOLDER, branchName), oldID);
+        unrestrictedDelete(join(BRANCH_FOLDER, branchName));
+    }
+
     public static void saveHEAD(String activeBranchName, String initCommitID) {
         Pointer head = new Pointer(true, activeBranchName, initCommitID);
         head.saveHeadFile();
@@ -0,0 +1,83 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** The lock every gitlet process holds on its repository while a command
+ *  runs: an OS file lock on .gitlet/lock, which the OS drops if the process
+ *  dies.
+ *
+ *  Commands that only read the repository (log, global-log, find, status,
+ *  diff) take it shared and run side by side; so does gc, which only
+ *  writes once it is ready to replace the pack.  Every other command takes
+ *  it exclusive, so writers run one at a time and never while anyone reads.
+ *  A reader that finds it has to write after all, to replay a crashed
+ *  command's journal or rebuild an index, upgrades to exclusive first.  The
+ *  upgrade lets go of the shared lock, so whatever the reader cached may be
+ *  stale afterwards and is dropped.
+ *
+ *  Only the working tree index is written under a shared lock, by status
+ *  and diff, and it is replaced with a rename from a file of each process's
+ *  own.
+ *  @author Yun Zhu
+ */
+public class RepositoryLock {
+    private static final Set<String> SHARED = Set.of("log", "global-log", "find", "status", "diff", "gc");
+
+    private static FileChannel channel;
+    private static FileLock lock;
+
+    /** Return true if COMMAND starts with the lock shared. */
+    static boolean isShared(String command) {
+        return SHARED.contains(command);
+    }
+
+    /** Lock the repository, shared if SHARED, waiting for whoever holds it. */
+    static void acquire(boolean shared) {
+        File lockFile = join(GITLET_DIR, "lock");
+        try {
+            channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            lock = channel.lock(0, Long.MAX_VALUE, shared);
+        } catch (IOException excp) {
+            release();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Make a shared lock exclusive, waiting for the other readers to finish. */
+    static void upgrade() {
+        if (lock == null || !lock.isShared()) {
+            return;
+        }
+        try {
+            lock.release();
+            lock = channel.lock(0, Long.MAX_VALUE, false);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        resetCaches();
+    }
+
+    /** Unlock the repository, if it is locked. */
+    static void release() {
+        try {
+            if (channel != null) {
+                // Closing the channel releases the lock
+                channel.close();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            channel = null;
+            lock = null;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Utils.*;
+
+/** The staging area (.gitlet/staging): one sorted file of entries, each a
+ *  path staged for addition or for removal with the id of its blob, its
+ *  mode and, for additions, the size and modification time the working
+ *  file had when it was added.  The blob of a staged file is written to
+ *  the object store by add, so a commit only has to apply the entries to
+ *  its parent's tree.
+ *
+ *  The file is small and rewritten whole through the Journal, so staging
+ *  changes take effect together with the refs of the same command.  Like
+ *  the working tree index, an addition whose modification time is not
+ *  older than the staging file is "racy" and never trusted by its stat.
+ *
+ *  A repository staged by an older gitlet, with a copy of every staged
+ *  file in .gitlet/addition and .gitlet/removed, is read from those
+ *  folders once and they are emptied on the next save.
+ *  @author Yun Zhu
+ */
+public class Staging {
+    private static final int MAGIC = 0x474c5354; // "GLST"
+    private static final int VERSION = 1;
+    static final int REGULAR = 0100644;
+    static final int EXECUTABLE = 0100755;
+
+    /** One staged path. */
+    private static class Entry {
+        private final boolean removed;
+        private final String blobID;
+        private final int mode;
+        private final long size;
+        private final long mtime;
+
+        Entry(boolean removed, String blobID, int mode, long size, long mtime) {
+            this.removed = removed;
+            this.blobID = blobID;
+            this.mode = mode;
+            this.size = size;
+            this.mtime = mtime;
+        }
+    }
+
+    private final File stagingFile;
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+    private final List<File> legacyFiles = new ArrayList<>();
+    private long savedAt;
+    private boolean dirty;
+
+    private Staging(File gitletDir) {
+        this.stagingFile = join(gitletDir, "staging");
+    }
+
+    /** Open the staging area of GITLETDIR. */
+    public static Staging open(File gitletDir) {
+        Staging staging = new Staging(gitletDir);
+        byte[] data = readContentsOrNull(staging.stagingFile);
+        if (data != null) {
+            staging.read(data);
+        } else {
+            staging.readLegacy(join(gitletDir, "addition"), join(gitletDir, "removed"));
+        }
+        return staging;
+    }
+
+    /** Return true if nothing is staged. */
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /** Return the paths staged for addition and their blob ids, in path order. */
+    public TreeMap<String, String> getAdditions() {
+        return select(false);
+    }
+
+    /** Return the paths staged for removal and the blob ids they had, in path order. */
+    public TreeMap<String, String> getRemovals() {
+        return select(true);
+    }
+
+    /** Return the blob id FILENAME is staged for addition with, or null. */
+    public String getAddedBlobID(String fileName) {
+        Entry entry = entries.get(fileName);
+        return entry == null || entry.removed ? null : entry.blobID;
+    }
+
+    /** Return true if FILENAME is staged for addition and WORKINGFILE still
+     *  has the size and modification time it was added with. */
+    public boolean isStagedAsIs(String fileName, File workingFile) {
+        Entry entry = entries.get(fileName);
+        if (entry == null || entry.removed) {
+            return false;
+        }
+        BasicFileAttributes attrs = stat(workingFile);
+        return attrs != null && attrs.size() == entry.size && entry.mtime < savedAt
+                && attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS) == entry.mtime;
+    }
+
+    /** Store FILE in the object store, as a delta against BASEID when that
+     *  pays, stage it for addition as FILENAME and return its blob id. */
+    public String add(String fileName, File file, String baseID) {
+        // Stat before reading, so a change made meanwhile is never trusted
+        BasicFileAttributes attrs = stat(file);
+        String blobID = Blob.save(Repository.objects(), file, baseID);
+        put(fileName, blobID, file, attrs);
+        return blobID;
+    }
+
+    /** Stage FILENAME for addition as the blob BLOBID, which FILE has just
+     *  been written from. */
+    public void stageAddition(String fileName, String blobID, File file) {
+        put(fileName, blobID, file, stat(file));
+    }
+
+    /** Stage FILENAME, tracked as the blob BLOBID, for removal. */
+    public void stageRemoval(String fileName, String blobID) {
+        entries.put(fileName, new Entry(true, blobID, REGULAR, -1, -1));
+        dirty = true;
+    }
+
+    /** Drop whatever is staged for FILENAME. */
+    public void unstage(String fileName) {
+        if (entries.remove(fileName) != null) {
+            dirty = true;
+        }
+    }
+
+    /** Drop everything that is staged. */
+    public void clear() {
+        if (!entries.isEmpty()) {
+            entries.clear();
+            dirty = true;
+        }
+    }
+
+    /** Write the staging area back if anything changed since it was opened. */
+    public void save() {
+        if (!dirty) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 64 * entries.size());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeBoolean(entry.removed);
+                out.write(hexToBytes(entry.blobID));
+                out.writeInt(entry.mode);
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        writeContents(stagingFile, bytes.toByteArray());
+        for (File file : legacyFiles) {
+            Journal.delete(file);
+        }
+        legacyFiles.clear();
+        dirty = false;
+    }
+
+    /** Return the blob ids of everything staged, which gc has to keep. */
+    public List<String> getBlobIDs() {
+        List<String> blobIDs = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            blobIDs.add(entry.blobID);
+        }
+        return blobIDs;
+    }
+
+    private void put(String fileName, String blobID, File file, BasicFileAttributes attrs) {
+        if (attrs == null) {
+            entries.put(fileName, new Entry(false, blobID, REGULAR, -1, -1));
+        } else {
+            int mode = Files.isExecutable(file.toPath()) ? EXECUTABLE : REGULAR;
+            entries.put(fileName, new Entry(false, blobID, mode, attrs.size(),
+                    attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)));
+        }
+        dirty = true;
+    }
+
+    private TreeMap<String, String> select(boolean removed) {
+        TreeMap<String, String> selected = new TreeMap<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            if (e.getValue().removed == removed) {
+                selected.put(e.getKey(), e.getValue().blobID);
+            }
+        }
+        return selected;
+    }
+
+    private void read(byte[] data) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw error("Unreadable staging area %s.", stagingFile);
+            }
+            int n = in.readInt();
+            byte[] id = new byte[UID_LENGTH / 2];
+            for (int i = 0; i < n; i += 1) {
+                String path = in.readUTF();
+                boolean removed = in.readBoolean();
+                in.readFully(id);
+                int mode = in.readInt();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                entries.put(path, new Entry(removed, bytesToHex(id), mode, size, mtime));
+            }
+        } catch (IOException excp) {
+            throw error("Unreadable staging area %s.", stagingFile);
+        }
+        BasicFileAttributes attrs = stat(stagingFile);
+        savedAt = attrs == null ? 0 : attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    private void readLegacy(File additionFolder, File removedFolder) {
+        if (additionFolder.isDirectory() || removedFolder.isDirectory()) {
+            // Importing stores blobs, which a reader has to upgrade its lock for
+            RepositoryLock.upgrade();
+        }
+        if (additionFolder.isDirectory()) {
+            for (String fileName : plainFilenamesIn(additionFolder)) {
+                File file = join(additionFolder, fileName);
+                put(fileName, Blob.save(Repository.objects(), file), file, null);
+                legacyFiles.add(file);
+            }
+        }
+        if (removedFolder.isDirectory()) {
+            for (String fileName : plainFilenamesIn(removedFolder)) {
+                File file = join(removedFolder, fileName);
+                stageRemoval(fileName, Blob.hash(file));
+                legacyFiles.add(file);
+            }
+        }
+    }
+
+    private static byte[] readContentsOrNull(File file) {
+        if (Journal.isPending(file)) {
+            return Journal.read(file);
+        }
+        return file.isFile() ? readContents(file) : null;
+    }
+}
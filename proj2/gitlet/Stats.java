@@ -0,0 +1,25 @@
+package gitlet;
+
+/** Optional performance reporting, turned on by passing --stats before the
+ *  command.  Reports go to standard error so that the normal output of a
+ *  command stays the same.
+ *  @author Yun Zhu
+ */
+public class Stats {
+    private static boolean enabled;
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Print a report built from FORMAT and ARGS, if reporting is on. */
+    public static void report(String format, Object... args) {
+        if (enabled) {
+            System.err.println(String.format(format, args));
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** The protocol push and fetch speak with another repository.
+ *
+ *  The other repository is served by a stand-in process: a second gitlet
+ *  started in that repository's working directory with the hidden command
+ *  `serve-remote PORT TOKEN`, which connects back to this one over a
+ *  loopback socket and sends TOKEN, a random string only the two processes
+ *  know, so no other process can take its place.  Each side only ever
+ *  opens its own .gitlet directory.
+ *
+ *  A transfer starts with the sender learning what the receiver already
+ *  has (the head of the branch for a push, every branch head for a
+ *  fetch).  The sender then finds the missing commits in one walk of its
+ *  commit graph and streams them, oldest first, as a single pack.  Each
+ *  commit is preceded by the trees and blobs the receiver lacks, and each
+ *  delta blob by its base.  Objects in the trees of the commits the
+ *  receiver already has are never sent.
+ *
+ *  A fetch can be shallow, sending only the commits fewer than a given
+ *  depth of parents away from the head, and blob-less, sending commits and
+ *  trees only.  The receiver of a shallow fetch tells the sender where its
+ *  history stops, so the commits below are not taken to be there, and the
+ *  one of a blob-less fetch asks for blobs later, by id, as it needs them.
+ *
+ *  A pack is a sequence of records TYPE(1) ID(20) CHUNKS, where TYPE is
+ *  the object type's ordinal plus one and the data is sent in chunks of
+ *  LENGTH(4) BYTES ending with an empty chunk.  A TYPE of 0 ends the pack.
+ *  The receiver hashes every object before storing it, so a sender can
+ *  not store anything under an id that is not its own.
+ *  @author Yun Zhu
+ */
+public class Transfer implements AutoCloseable {
+    private static final byte BRANCH = 1;
+    private static final byte FETCH = 2;
+    private static final byte PUSH = 3;
+    private static final byte QUIT = 4;
+    private static final byte GET = 5;
+    private static final byte END = 0;
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int CONNECT_TIMEOUT = 60_000;
+    /** How often to check that the stand-in process is still running while
+     *  waiting for it to connect. */
+    private static final int POLL_INTERVAL = 100;
+    private static final int TOKEN_LENGTH = 16;
+
+    private Process process;
+    private Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+    private long objectCount;
+    private long byteCount;
+    /** The blobs of the trees in the last pack read that are not here. */
+    private List<String> absentBlobIDs = new ArrayList<>();
+
+    private Transfer(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), CHUNK_SIZE));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), CHUNK_SIZE));
+    }
+
+    /** Start a stand-in process for the repository in REMOTEDIR (a .gitlet
+     *  directory) and connect to it. */
+    public static Transfer open(File remoteDir) {
+        byte[] random = new byte[TOKEN_LENGTH];
+        new SecureRandom().nextBytes(random);
+        String token = bytesToHex(random);
+        try (ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            listener.setSoTimeout(POLL_INTERVAL);
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    "gitlet.Main", "serve-remote", Integer.toString(listener.getLocalPort()), token);
+            builder.directory(remoteDir.getAbsoluteFile().getParentFile());
+            builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            Process process = builder.start();
+            Transfer transfer = accept(listener, process, token);
+            transfer.process = process;
+            return transfer;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the connection on LISTENER that sends TOKEN, closing any
+     *  other.  Give up as soon as PROCESS, which should make it, exits. */
+    private static Transfer accept(ServerSocket listener, Process process, String token) throws IOException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+        while (true) {
+            if (!process.isAlive()) {
+                throw error("The remote process exited with status %d before connecting.", process.exitValue());
+            }
+            if (System.currentTimeMillis() > deadline) {
+                process.destroy();
+                throw error("The remote process did not connect.");
+            }
+            Socket socket;
+            try {
+                socket = listener.accept();
+            } catch (SocketTimeoutException excp) {
+                continue;
+            }
+            try {
+                socket.setSoTimeout(CONNECT_TIMEOUT);
+                Transfer transfer = new Transfer(socket);
+                if (token.equals(transfer.in.readUTF())) {
+                    socket.setSoTimeout(0);
+                    return transfer;
+                }
+            } catch (IOException excp) {
+                // Not the stand-in process; keep waiting for it
+            }
+            socket.close();
+        }
+    }
+
+    /** Serve the requests of the process listening on PORT, which expects
+     *  TOKEN first, for the repository in the current directory. */
+    public static void serve(int port, String token) {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            Transfer transfer = new Transfer(socket);
+            transfer.out.writeUTF(token);
+            transfer.out.flush();
+            transfer.serveRequests();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the commit id of BRANCHNAME in the other repository, or null
+     *  if it has no such branch. */
+    public String branchHead(String branchName) {
+        try {
+            out.writeByte(BRANCH);
+            out.writeUTF(branchName);
+            out.flush();
+            String commitID = in.readUTF();
+            return commitID.isEmpty() ? null : commitID;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Fetch the commit WANTID with every commit and object behind it that
+     *  is not behind one of HAVEIDS here, and return the new commits.  This
+     *  history stops at SHALLOWIDS.  With a DEPTH above 0, only the commits
+     *  fewer than DEPTH parents away from WANTID come, and unless WITHBLOBS,
+     *  no blobs do (see getAbsentBlobIDs). */
+    public List<Commit> fetch(String wantID, Collection<String> haveIDs, Collection<String> shallowIDs,
+                              int depth, boolean withBlobs) {
+        try {
+            out.writeByte(FETCH);
+            out.writeUTF(wantID);
+            writeIDs(haveIDs);
+            writeIDs(shallowIDs);
+            out.writeInt(depth);
+            out.writeBoolean(withBlobs);
+            out.flush();
+            return readPack();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Fetch the blobs IDS, with the bases of the deltas among them. */
+    public void fetchObjects(Collection<String> ids) {
+        try {
+            out.writeByte(GET);
+            writeIDs(ids);
+            out.flush();
+            readPack();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the blobs that the trees of the last fetch use and that are
+     *  not here, which a blob-less fetch leaves for later. */
+    public List<String> getAbsentBlobIDs() {
+        return absentBlobIDs;
+    }
+
+    /** Send the commit NEWID with everything behind it that the other
+     *  repository lacks, given that it has HAVEID (or nothing, if null),
+     *  and point its branch BRANCHNAME at NEWID if it is still at HAVEID
+     *  (or still missing).  Return false if the branch had moved. */
+    public boolean push(String branchName, String newID, String haveID) {
+        try {
+            out.writeByte(PUSH);
+            out.writeUTF(branchName);
+            out.writeUTF(newID);
+            out.writeUTF(haveID == null ? "" : haveID);
+            writePack(newID, haveID == null ? List.of() : List.of(haveID), List.of(), 0, true);
+            out.flush();
+            return in.readBoolean();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stop the stand-in process and report what was transferred.  Fails
+     *  if the process did not finish cleanly, as what it was sent may not
+     *  have been stored. */
+    @Override
+    public void close() {
+        try {
+            out.writeByte(QUIT);
+            out.flush();
+            socket.close();
+            if (process.waitFor() != 0) {
+                throw error("The remote process exited with status %d.", process.exitValue());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+        Stats.report("transfer: %d objects, %d bytes", objectCount, byteCount);
+    }
+
+    private void serveRequests() throws IOException {
+        while (true) {
+            byte request = in.readByte();
+            if (request == QUIT) {
+                return;
+            } else if (request == BRANCH) {
+                String commitID = extractBranchThenGetCommitID(in.readUTF());
+                out.writeUTF(commitID == null ? "" : commitID);
+            } else if (request == FETCH) {
+                String wantID = in.readUTF();
+                List<String> haveIDs = readIDs();
+                List<String> shallowIDs = readIDs();
+                int depth = in.readInt();
+                writePack(wantID, haveIDs, shallowIDs, depth, in.readBoolean());
+            } else if (request == GET) {
+                writeBlobs(readIDs());
+            } else if (request == PUSH) {
+                String branchName = in.readUTF();
+                String newID = in.readUTF();
+                String oldID = in.readUTF();
+                readPack();
+                String currentID = extractBranchThenGetCommitID(branchName);
+                boolean unmoved = oldID.equals(currentID == null ? "" : currentID);
+                if (unmoved) {
+                    updateBranch(branchName, currentID, newID);
+                    // The branch has to have moved before the pusher is told it did
+                    try {
+                        Journal.commit();
+                    } catch (GitletException excp) {
+                        unmoved = false;
+                    }
+                }
+                out.writeBoolean(unmoved);
+            } else {
+                throw error("Unknown transfer request %d.", request);
+            }
+            out.flush();
+        }
+    }
+
+    /** Stream the commits behind WANTID that are not behind HAVEIDS, with
+     *  their objects, as a pack, for a receiver whose history stops at
+     *  SHALLOWIDS.  A DEPTH above 0 limits the commits sent to those fewer
+     *  than DEPTH parents away from WANTID, and WITHBLOBS false leaves out
+     *  every blob. */
+    private void writePack(String wantID, Collection<String> haveIDs, Collection<String> shallowIDs,
+                           int depth, boolean withBlobs) throws IOException {
+        ObjectStore store = objects();
+        CommitGraph graph = commitGraph();
+        Set<String> boundary = new HashSet<>();
+        List<String> missingIDs = graph.ancestorsNotReachableFrom(wantID, haveIDs, shallowIDs, depth, boundary);
+        // Oldest first, so an interrupted transfer never leaves a commit without its history
+        Collections.reverse(missingIDs);
+        Set<String> missing = new HashSet<>(missingIDs);
+
+        // Everything in the trees of the commits just behind the missing ones is there already,
+        // except behind the commits where a shallow history stops
+        Set<String> known = new HashSet<>();
+        for (String commitID : missingIDs) {
+            if (boundary.contains(commitID)) {
+                continue;
+            }
+            for (String parentID : graph.getParentIDs(commitID)) {
+                if (!missing.contains(parentID) && known.add(parentID)) {
+                    collectTree(store, readCommit(store, parentID).getTreeID(), known);
+                }
+            }
+        }
+        for (String commitID : missingIDs) {
+            writeTree(store, readCommit(store, commitID).getTreeID(), known, withBlobs);
+            writeObject(store, ObjectStore.Type.COMMIT, commitID);
+        }
+        out.writeByte(END);
+    }
+
+    /** Stream the blobs IDS, and the bases of the deltas among them, as a pack. */
+    private void writeBlobs(Collection<String> ids) throws IOException {
+        ObjectStore store = objects();
+        // Fetch those this repository was promised in one go as well
+        store.prefetch(ids);
+        Set<String> known = new HashSet<>();
+        for (String id : ids) {
+            writeBlob(store, id, known);
+        }
+        out.writeByte(END);
+    }
+
+    private static void collectTree(ObjectStore store, String treeID, Set<String> known) {
+        if (!known.add(treeID)) {
+            return;
+        }
+        Tree tree = Tree.read(store, treeID);
+        for (String subtreeID : tree.getSubtreeIDs()) {
+            collectTree(store, subtreeID, known);
+        }
+        known.addAll(tree.getBlobIDs());
+    }
+
+    private void writeTree(ObjectStore store, String treeID, Set<String> known, boolean withBlobs)
+            throws IOException {
+        if (known.contains(treeID)) {
+            return;
+        }
+        Tree tree = Tree.read(store, treeID);
+        for (String subtreeID : tree.getSubtreeIDs()) {
+            writeTree(store, subtreeID, known, withBlobs);
+        }
+        for (String blobID : withBlobs ? tree.getBlobIDs() : List.<String>of()) {
+            writeBlob(store, blobID, known);
+        }
+        writeObject(store, ObjectStore.Type.TREE, treeID);
+        known.add(treeID);
+    }
+
+    private void writeBlob(ObjectStore store, String blobID, Set<String> known) throws IOException {
+        if (known.contains(blobID)) {
+            return;
+        }
+        String baseID = Blob.baseOf(store, blobID);
+        if (baseID != null) {
+            writeBlob(store, baseID, known);
+        }
+        writeObject(store, ObjectStore.Type.BLOB, blobID);
+        known.add(blobID);
+    }
+
+    private void writeObject(ObjectStore store, ObjectStore.Type type, String id) throws IOException {
+        out.writeByte(type.ordinal() + 1);
+        out.write(hexToBytes(id));
+        try (ReadableByteChannel data = store.open(id)) {
+            if (data == null) {
+                throw error("Missing object %s.", id);
+            }
+            ByteBuffer buf = ByteBuffer.allocate(CHUNK_SIZE);
+            while (data.read(buf) >= 0 || buf.position() > 0) {
+                if (buf.position() == 0) {
+                    continue;
+                }
+                out.writeInt(buf.position());
+                out.write(buf.array(), 0, buf.position());
+                byteCount += buf.position();
+                buf.clear();
+            }
+        }
+        out.writeInt(0);
+        objectCount += 1;
+    }
+
+    /** Store every object of the incoming pack, then add its commits to
+     *  the commit graph and message index, and return them. */
+    private List<Commit> readPack() throws IOException {
+        ObjectStore store = objects();
+        List<String> commitIDs = new ArrayList<>();
+        List<String> treeIDs = new ArrayList<>();
+        byte[] id = new byte[UID_LENGTH / 2];
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int type;
+        while ((type = in.readUnsignedByte()) != END) {
+            in.readFully(id);
+            String objectID = bytesToHex(id);
+            File tmp = Files.createTempFile(GITLET_DIR.toPath(), "transfer", ".tmp").toFile();
+            try (OutputStream data = Files.newOutputStream(tmp.toPath())) {
+                int length;
+                while ((length = in.readInt()) > 0) {
+                    in.readFully(chunk, 0, length);
+                    data.write(chunk, 0, length);
+                    byteCount += length;
+                }
+            }
+            ObjectStore.Type objectType = ObjectStore.Type.values()[type - 1];
+            String actualID = objectType == ObjectStore.Type.BLOB ? Blob.idOf(store, tmp) : sha1(readContents(tmp));
+            if (!actualID.equals(objectID)) {
+                unrestrictedDelete(tmp);
+                throw error("Object %s from the remote is corrupted.", objectID);
+            }
+            store.put(objectID, objectType, tmp);
+            objectCount += 1;
+            if (objectType == ObjectStore.Type.COMMIT) {
+                commitIDs.add(objectID);
+            } else if (objectType == ObjectStore.Type.TREE) {
+                treeIDs.add(objectID);
+            }
+        }
+        absentBlobIDs = new ArrayList<>();
+        for (String treeID : treeIDs) {
+            for (String blobID : Tree.read(store, treeID).getBlobIDs()) {
+                if (!store.contains(blobID)) {
+                    absentBlobIDs.add(blobID);
+                }
+            }
+        }
+        List<Commit> commits = new ArrayList<>();
+        for (String commitID : commitIDs) {
+            commits.add(readCommit(store, commitID));
+        }
+        if (!commits.isEmpty()) {
+            commitGraph().add(commits);
+            messageIndex().add(commits);
+        }
+        return commits;
+    }
+
+    private void writeIDs(Collection<String> ids) throws IOException {
+        out.writeInt(ids.size());
+        for (String id : ids) {
+            out.write(hexToBytes(id));
+        }
+    }
+
+    private List<String> readIDs() throws IOException {
+        int n = in.readInt();
+        List<String> ids = new ArrayList<>(n);
+        byte[] id = new byte[UID_LENGTH / 2];
+        for (int i = 0; i < n; i += 1) {
+            in.readFully(id);
+            ids.add(bytesToHex(id));
+        }
+        return ids;
+    }
+}
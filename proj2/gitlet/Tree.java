@@ -0,0 +1,368 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** One directory of a commit: a sorted map from entry name to id.  A file
+ *  maps to its blob id, and a subdirectory maps, under its name followed
+ *  by '/', to the id of its own tree.  The tree of a commit is the tree of
+ *  the top directory; files below it are named by '/'-separated paths.
+ *
+ *  A small directory is a single leaf holding all its entries.  Once it
+ *  grows past MAX_LEAF_SIZE entries it fans out into leaves chosen by the
+ *  first byte of the SHA-1 of each entry name, and the root only keeps the
+ *  ids of those leaves.  Trees are immutable, so a commit that changes a
+ *  few files writes only the leaves holding them and the trees of the
+ *  directories above them, and shares every other tree with its parent.
+ *  Finding one file loads at most two trees per directory on its path
+ *  and never touches blob contents; diffing two commits never opens a
+ *  directory whose tree they share.
+ *  @author Yun Zhu
+ */
+public class Tree {
+    private static final int MAX_LEAF_SIZE = 512;
+    private static final byte LEAF = 0;
+    private static final byte ROOT = 1;
+    private static final ObjectCache<String, Tree> cache = new ObjectCache<>("tree", 32L << 20);
+    private static final Tree EMPTY = new Tree(new TreeMap<>(), null, 0);
+
+    private int size;
+    /** Entry name -> blob or subtree id, in a leaf. */
+    private TreeMap<String, String> entries;
+    /** Bucket -> id of the leaf holding the names in it, in a fanned-out root. */
+    private TreeMap<String, String> buckets;
+
+    private Tree(TreeMap<String, String> entries, TreeMap<String, String> buckets, int size) {
+        this.entries = entries;
+        this.buckets = buckets;
+        this.size = size;
+    }
+
+    /** Store an empty tree in STORE and return its id. */
+    public static String saveEmpty(ObjectStore store) {
+        return save(store, new Tree(new TreeMap<>(), null, 0));
+    }
+
+    /** Return the tree TREEID from STORE. */
+    public static Tree read(ObjectStore store, String treeID) {
+        Tree tree = cache.get(treeID);
+        if (tree != null) {
+            return tree;
+        }
+        byte[] data = store.get(treeID);
+        if (data == null) {
+            throw error("Missing tree %s.", treeID);
+        }
+        tree = decode(data);
+        cache.put(treeID, tree, data.length);
+        return tree;
+    }
+
+    /** Return the hit and miss counts of the tree cache. */
+    public static String cacheStats() {
+        return cache.stats();
+    }
+
+    /** Return the blob id of the file at PATH, or null if it is not in this tree. */
+    public String get(ObjectStore store, String path) {
+        int slash = path.indexOf('/');
+        if (slash < 0) {
+            return getEntry(store, path);
+        }
+        String subtreeID = getEntry(store, path.substring(0, slash + 1));
+        return subtreeID == null ? null : read(store, subtreeID).get(store, path.substring(slash + 1));
+    }
+
+    /** Return the blob id of the file at PATH or the tree id of the
+     *  directory at PATH, or null if this tree has neither.  Trees are named
+     *  by their contents, so a directory has the same id in two commits
+     *  exactly when nothing below it changed. */
+    public String getFileOrDirectory(ObjectStore store, String path) {
+        int slash = path.indexOf('/');
+        if (slash < 0) {
+            String id = getEntry(store, path);
+            return id != null ? id : getEntry(store, path + "/");
+        }
+        String subtreeID = getEntry(store, path.substring(0, slash + 1));
+        return subtreeID == null ? null
+                : read(store, subtreeID).getFileOrDirectory(store, path.substring(slash + 1));
+    }
+
+    /** Return the number of entries in this directory, subdirectories
+     *  counting as one. */
+    public int size() {
+        return size;
+    }
+
+    /** Return every file path -> blob id in this tree and below it, in
+     *  path order. */
+    public TreeMap<String, String> toMap(ObjectStore store) {
+        TreeMap<String, String> all = new TreeMap<>();
+        collect(store, "", all);
+        return all;
+    }
+
+    /** Return the blob ids held directly in this tree, which are none for a
+     *  fanned-out root. */
+    public List<String> getBlobIDs() {
+        List<String> blobIDs = new ArrayList<>();
+        if (buckets == null) {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                if (!isDirectory(entry.getKey())) {
+                    blobIDs.add(entry.getValue());
+                }
+            }
+        }
+        return blobIDs;
+    }
+
+    /** Return the ids of the trees directly below this one: the leaves of a
+     *  fanned-out root, or the subdirectories of a leaf. */
+    public List<String> getSubtreeIDs() {
+        if (buckets != null) {
+            return new ArrayList<>(buckets.values());
+        }
+        List<String> subtreeIDs = new ArrayList<>();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            if (isDirectory(entry.getKey())) {
+                subtreeIDs.add(entry.getValue());
+            }
+        }
+        return subtreeIDs;
+    }
+
+    /** Return the changes that turn tree A into tree B: file path -> blob
+     *  id in B, or null for files that B does not have.  Subdirectories
+     *  with the same tree on both sides are skipped without being read, and
+     *  so are the leaves two fanned-out directories share. */
+    public static TreeMap<String, String> diff(ObjectStore store, Tree a, Tree b) {
+        TreeMap<String, String> changes = new TreeMap<>();
+        diff(store, a, b, "", changes);
+        return changes;
+    }
+
+    /** Return the changes that turn the tree ATREEID into BTREEID, either
+     *  of which may be null for the empty tree, as diff does. */
+    public static TreeMap<String, String> diff(ObjectStore store, String aTreeID, String bTreeID) {
+        if (Objects.equals(aTreeID, bTreeID)) {
+            return new TreeMap<>();
+        }
+        return diff(store, aTreeID == null ? EMPTY : read(store, aTreeID),
+                bTreeID == null ? EMPTY : read(store, bTreeID));
+    }
+
+    /** Store in STORE the tree that is this one with CHANGES applied, and
+     *  return its id.  CHANGES maps file paths to their new blob ids, or to
+     *  null for files that are removed.  The trees of the directories the
+     *  changes fall in are updated first, and a directory left empty is
+     *  removed.  Trees and leaves without changes are reused. */
+    public String update(ObjectStore store, Map<String, String> changes) {
+        Map<String, String> local = new TreeMap<>();
+        Map<String, Map<String, String>> changesBySubdir = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                local.put(path, change.getValue());
+            } else {
+                changesBySubdir.computeIfAbsent(path.substring(0, slash + 1), k -> new TreeMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> subdir : changesBySubdir.entrySet()) {
+            String subtreeID = getEntry(store, subdir.getKey());
+            Tree subtree = subtreeID == null ? EMPTY : read(store, subtreeID);
+            String updatedID = subtree.update(store, subdir.getValue());
+            local.put(subdir.getKey(), read(store, updatedID).size == 0 ? null : updatedID);
+        }
+        return updateEntries(store, local);
+    }
+
+    private String getEntry(ObjectStore store, String name) {
+        if (buckets == null) {
+            return entries.get(name);
+        }
+        String leafID = buckets.get(bucketOf(name));
+        return leafID == null ? null : read(store, leafID).entries.get(name);
+    }
+
+    /** Return the entries of this directory, in name order. */
+    private TreeMap<String, String> entries(ObjectStore store) {
+        if (buckets == null) {
+            return entries;
+        }
+        TreeMap<String, String> all = new TreeMap<>();
+        for (String leafID : buckets.values()) {
+            all.putAll(read(store, leafID).entries);
+        }
+        return all;
+    }
+
+    private void collect(ObjectStore store, String prefix, Map<String, String> all) {
+        for (Map.Entry<String, String> entry : entries(store).entrySet()) {
+            if (isDirectory(entry.getKey())) {
+                read(store, entry.getValue()).collect(store, prefix + entry.getKey(), all);
+            } else {
+                all.put(prefix + entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static void diff(ObjectStore store, Tree a, Tree b, String prefix, Map<String, String> changes) {
+        Map<String, String> aEntries;
+        Map<String, String> bEntries;
+        if (a.buckets == null || b.buckets == null) {
+            aEntries = a.entries(store);
+            bEntries = b.entries(store);
+        } else {
+            aEntries = new TreeMap<>();
+            bEntries = new TreeMap<>();
+            TreeSet<String> allBuckets = new TreeSet<>(a.buckets.keySet());
+            allBuckets.addAll(b.buckets.keySet());
+            for (String bucket : allBuckets) {
+                String aLeafID = a.buckets.get(bucket);
+                String bLeafID = b.buckets.get(bucket);
+                if (!Objects.equals(aLeafID, bLeafID)) {
+                    aEntries.putAll(leafEntries(store, aLeafID));
+                    bEntries.putAll(leafEntries(store, bLeafID));
+                }
+            }
+        }
+
+        TreeSet<String> names = new TreeSet<>(aEntries.keySet());
+        names.addAll(bEntries.keySet());
+        for (String name : names) {
+            String aID = aEntries.get(name);
+            String bID = bEntries.get(name);
+            if (Objects.equals(aID, bID)) {
+                continue;
+            }
+            if (isDirectory(name)) {
+                diff(store, aID == null ? EMPTY : read(store, aID), bID == null ? EMPTY : read(store, bID),
+                        prefix + name, changes);
+            } else {
+                changes.put(prefix + name, bID);
+            }
+        }
+    }
+
+    /** Store the tree that is this one with CHANGES to its own entries
+     *  applied, and return its id. */
+    private String updateEntries(ObjectStore store, Map<String, String> changes) {
+        if (buckets == null) {
+            TreeMap<String, String> updated = new TreeMap<>(entries);
+            apply(updated, changes);
+            if (updated.size() <= MAX_LEAF_SIZE) {
+                return save(store, new Tree(updated, null, updated.size()));
+            }
+            return fanOut(store, updated);
+        }
+
+        Map<String, Map<String, String>> changesByBucket = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            changesByBucket.computeIfAbsent(bucketOf(change.getKey()), k -> new TreeMap<>())
+                    .put(change.getKey(), change.getValue());
+        }
+        TreeMap<String, String> updatedBuckets = new TreeMap<>(buckets);
+        int updatedSize = size;
+        for (Map.Entry<String, Map<String, String>> bucket : changesByBucket.entrySet()) {
+            String leafID = buckets.get(bucket.getKey());
+            TreeMap<String, String> leaf = new TreeMap<>();
+            if (leafID != null) {
+                leaf.putAll(read(store, leafID).entries);
+            }
+            updatedSize -= leaf.size();
+            apply(leaf, bucket.getValue());
+            updatedSize += leaf.size();
+            if (leaf.isEmpty()) {
+                updatedBuckets.remove(bucket.getKey());
+            } else {
+                updatedBuckets.put(bucket.getKey(), save(store, new Tree(leaf, null, leaf.size())));
+            }
+        }
+        // Fold a tree that has shrunk back into a single leaf
+        if (updatedSize <= MAX_LEAF_SIZE / 2) {
+            TreeMap<String, String> all = new TreeMap<>();
+            for (String id : updatedBuckets.values()) {
+                all.putAll(read(store, id).entries);
+            }
+            return save(store, new Tree(all, null, all.size()));
+        }
+        return save(store, new Tree(null, updatedBuckets, updatedSize));
+    }
+
+    private static String fanOut(ObjectStore store, TreeMap<String, String> all) {
+        Map<String, TreeMap<String, String>> leaves = new TreeMap<>();
+        for (Map.Entry<String, String> entry : all.entrySet()) {
+            leaves.computeIfAbsent(bucketOf(entry.getKey()), k -> new TreeMap<>())
+                    .put(entry.getKey(), entry.getValue());
+        }
+        TreeMap<String, String> buckets = new TreeMap<>();
+        for (Map.Entry<String, TreeMap<String, String>> leaf : leaves.entrySet()) {
+            Tree tree = new Tree(leaf.getValue(), null, leaf.getValue().size());
+            buckets.put(leaf.getKey(), save(store, tree));
+        }
+        return save(store, new Tree(null, buckets, all.size()));
+    }
+
+    private static Map<String, String> leafEntries(ObjectStore store, String leafID) {
+        return leafID == null ? new TreeMap<>() : read(store, leafID).entries;
+    }
+
+    private static void apply(TreeMap<String, String> entries, Map<String, String> changes) {
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                entries.remove(change.getKey());
+            } else {
+                entries.put(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    private static String save(ObjectStore store, Tree tree) {
+        byte[] data = tree.encode();
+        String treeID = sha1(data);
+        store.put(treeID, ObjectStore.Type.TREE, data);
+        cache.put(treeID, tree, data.length);
+        return treeID;
+    }
+
+    /** Return the record this tree is stored as: KIND SIZE COUNT and COUNT
+     *  pairs of file name and blob id, or of bucket and leaf id. */
+    public byte[] encode() {
+        TreeMap<String, String> pairs = buckets == null ? entries : buckets;
+        Codec.Encoder out = new Codec.Encoder(Codec.Type.TREE, 16 + 48 * pairs.size());
+        out.writeByte(buckets == null ? LEAF : ROOT).writeVarint(size).writeVarint(pairs.size());
+        for (Map.Entry<String, String> pair : pairs.entrySet()) {
+            out.writeString(pair.getKey()).writeID(pair.getValue());
+        }
+        return out.toByteArray();
+    }
+
+    /** Return the tree stored as DATA. */
+    public static Tree decode(byte[] data) {
+        Codec.Decoder in = new Codec.Decoder(data, Codec.Type.TREE);
+        boolean isLeaf = in.readByte() == LEAF;
+        int size = in.readVarint();
+        TreeMap<String, String> pairs = new TreeMap<>();
+        for (int n = in.readVarint(); n > 0; n -= 1) {
+            pairs.put(in.readString(), in.readID());
+        }
+        in.end();
+        return isLeaf ? new Tree(pairs, null, size) : new Tree(null, pairs, size);
+    }
+
+    private static boolean isDirectory(String name) {
+        return name.endsWith("/");
+    }
+
+    private static String bucketOf(String fileName) {
+        return sha1(fileName).substring(0, 2);
+    }
+}
@@ -1,9 +1,9 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
@@ -91,6 +91,11 @@ class Utils {
     /** Deletes the file named FILE if it exists and is not a directory.
      *  Returns true if FILE was deleted, and false otherwise. */
     static boolean unrestrictedDelete(File file) {
+        if (Journal.covers(file)) {
+            boolean exists = Journal.isPending(file) ? Journal.read(file) != null : file.isFile();
+            Journal.delete(file);
+            return exists;
+        }
         if (!file.isDirectory()) {
             return file.delete();
         } else {
@@ -104,6 +109,13 @@ class Utils {
      *  be a normal file.  Throws IllegalArgumentException
      *  in case of problems. */
     static byte[] readContents(File file) {
+        if (Journal.isPending(file)) {
+            byte[] data = Journal.read(file);
+            if (data == null) {
+                throw new IllegalArgumentException("must be a normal file");
+            }
+            return data.clone();
+        }
         if (!file.isFile()) {
             throw new IllegalArgumentException("must be a normal file");
         }
@@ -126,6 +138,16 @@ class Utils {
      *  either a String or a byte array.  Throws IllegalArgumentException
      *  in case of problems. */
     static void writeContents(File file, Object... contents) {
+        if (Journal.covers(file)) {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            for (Object obj : contents) {
+                byte[] bytes = obj instanceof byte[] ? (byte[]) obj
+                    : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                data.write(bytes, 0, bytes.length);
+            }
+            Journal.write(file, data.toByteArray());
+            return;
+        }
         try {
             if (file.isDirectory()) {
                 throw
@@ -152,7 +174,7 @@ class Utils {
                                                  Class<T> expectedClass) {
         try {
             ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
+                new ObjectInputStream(new ByteArrayInputStream(readContents(file)));
             T result = expectedClass.cast(in.readObject());
             in.close();
             return result;
@@ -187,7 +209,7 @@ class Utils {
             return null;
         } else {
             Arrays.sort(files);
-            return Arrays.asList(files);
+            return Journal.list(dir, Arrays.asList(files));
         }
     }
 
@@ -228,6 +250,23 @@ class Utils {
         }
     }
 
+    /** Return an object of type T read from the serialized bytes DATA,
+     *  casting it to EXPECTEDCLASS.  Throws IllegalArgumentException in
+     *  case of problems. */
+    static <T extends Serializable> T deserialize(byte[] data,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(data));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */
@@ -245,8 +284,19 @@ class Utils {
         System.out.println();
     }
 
+    /** Print MSG and end the current command.  Main turns this into a
+     *  normal exit; the daemon just moves on to the next command. */
     public static void printAndExit(String msg) {
         System.out.println(msg);
-        System.exit(0);
+        throw new CommandExit();
+    }
+
+    /** Thrown by printAndExit to end the current command early. */
+    static class CommandExit extends RuntimeException {
+        private static final long serialVersionUID = 5294751867310215503L;
+
+        CommandExit() {
+            super(null, null, false, false);
+        }
     }
 }
@@ -0,0 +1,144 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import static gitlet.Utils.*;
+
+/** Lists the files of the working directory, subdirectories included, as
+ *  '/'-separated paths from the top.  Directories are listed through the
+ *  working tree Index, so one that has not changed since the last walk is
+ *  not read again, and sibling subdirectories are walked in parallel on a
+ *  fork-join pool.  Only a directory with at least two subdirectories
+ *  forks, so a flat working directory never starts a thread.
+ *
+ *  The .gitlet directory is never listed, and neither is anything matched
+ *  by the ignore file (.gitletignore at the top): one glob per line, blank
+ *  lines and lines starting with '#' skipped.  A pattern containing '/' is
+ *  matched against the whole path, any other against the name alone, and
+ *  a pattern ending in '/' only matches directories.  An ignored directory
+ *  is not walked at all.
+ *  @author Yun Zhu
+ */
+public class WorkingTree {
+    public static final String IGNORE_FILE = ".gitletignore";
+
+    /** One line of the ignore file. */
+    private static class Rule {
+        private final PathMatcher matcher;
+        private final boolean wholePath;
+        private final boolean dirsOnly;
+
+        Rule(FileSystem fs, String pattern) {
+            dirsOnly = pattern.endsWith("/");
+            if (dirsOnly) {
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+            if (pattern.startsWith("/")) {
+                pattern = pattern.substring(1);
+            }
+            wholePath = pattern.contains("/");
+            matcher = fs.getPathMatcher("glob:" + pattern);
+        }
+
+        boolean matches(FileSystem fs, String path, String name, boolean isDir) {
+            if (dirsOnly && !isDir) {
+                return false;
+            }
+            return matcher.matches(fs.getPath(wholePath ? path : name));
+        }
+    }
+
+    private final Index index;
+    private final List<Rule> rules = new ArrayList<>();
+    private final FileSystem fs = FileSystems.getDefault();
+
+    private WorkingTree(File workDir, Index index) {
+        this.index = index;
+        File ignoreFile = join(workDir, IGNORE_FILE);
+        if (ignoreFile.isFile()) {
+            for (String line : readContentsAsString(ignoreFile).split("\n")) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    rules.add(new Rule(fs, line));
+                }
+            }
+        }
+    }
+
+    /** Return the paths of the files below WORKDIR that are not ignored, in
+     *  path order, listing directories through INDEX. */
+    public static List<String> list(File workDir, Index index) {
+        WorkingTree tree = new WorkingTree(workDir, index);
+        Index.Listing top = index.list("");
+        if (top == null) {
+            return new ArrayList<>();
+        }
+        List<String> paths = tree.walk("", top);
+        index.forgetUnlisted();
+        Collections.sort(paths);
+        return paths;
+    }
+
+    /** Lists and walks one subdirectory, forking for its subdirectories. */
+    private class Walk extends RecursiveTask<List<String>> {
+        private static final long serialVersionUID = 3160826447301389924L;
+
+        private final String path;
+
+        Walk(String path) {
+            this.path = path;
+        }
+
+        @Override
+        protected List<String> compute() {
+            Index.Listing listing = index.list(path);
+            return listing == null ? new ArrayList<>() : walk(path, listing);
+        }
+    }
+
+    private List<String> walk(String path, Index.Listing listing) {
+        String prefix = path.isEmpty() ? "" : path + "/";
+        List<String> paths = new ArrayList<>();
+        for (String name : listing.getFiles()) {
+            if (!isIgnored(prefix + name, name, false)) {
+                paths.add(prefix + name);
+            }
+        }
+
+        List<Walk> walks = new ArrayList<>();
+        for (String name : listing.getDirs()) {
+            if ((path.isEmpty() && name.equals(".gitlet")) || isIgnored(prefix + name, name, true)) {
+                continue;
+            }
+            walks.add(new Walk(prefix + name));
+        }
+        // Forking from outside the pool submits to the common pool
+        if (walks.size() < 2) {
+            for (Walk walk : walks) {
+                paths.addAll(walk.compute());
+            }
+        } else {
+            for (Walk walk : ForkJoinTask.invokeAll(walks)) {
+                paths.addAll(walk.join());
+            }
+        }
+        return paths;
+    }
+
+    private boolean isIgnored(String path, String name, boolean isDir) {
+        for (Rule rule : rules) {
+            if (rule.matches(fs, path, name, isDir)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}